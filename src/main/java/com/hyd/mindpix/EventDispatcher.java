@@ -0,0 +1,258 @@
+package com.hyd.mindpix;
+
+import javafx.application.Platform;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 事件分发器，按事件类型决定投递方式：
+ * <ul>
+ *   <li>{@link Delivery#SYNC}：在发布者线程中立即投递（未登记的事件类型）</li>
+ *   <li>{@link Delivery#UI}：在 JavaFX 线程中按发布顺序投递</li>
+ *   <li>{@link Delivery#BACKGROUND}：在单独的后台线程中按发布顺序投递</li>
+ * </ul>
+ * 可合并的事件（例如加载进度）在队列中只保留最新的一个，并占据第一次入队时的位置，
+ * 因此不会越过之后发布的其他事件；其余事件不会丢失，也不会乱序。
+ * 默认同一类型的事件互相合并，实现 {@link Coalescing} 的事件只与键相同的同类事件合并。
+ */
+@Slf4j
+public class EventDispatcher {
+
+  public enum Delivery {
+    SYNC, UI, BACKGROUND
+  }
+
+  /**
+   * 事件类型的投递策略
+   *
+   * @param delivery 投递线程
+   * @param latestWins 是否只投递最新的一个，尚未投递的旧事件被新事件替换
+   */
+  public record Policy(Delivery delivery, boolean latestWins) {
+
+    public static final Policy SYNC = new Policy(Delivery.SYNC, false);
+
+    public static final Policy UI_ORDERED = new Policy(Delivery.UI, false);
+
+    public static final Policy UI_LATEST = new Policy(Delivery.UI, true);
+
+    public static final Policy BACKGROUND_ORDERED = new Policy(Delivery.BACKGROUND, false);
+  }
+
+  /**
+   * 可合并的事件中只有同一类型、同一个键的才互相合并，例如每个加载过程的进度各自合并
+   */
+  public interface Coalescing {
+    Object coalescingKey();
+  }
+
+  private record CoalescingKey(Class<?> type, Object key) {
+  }
+
+  private static final AtomicLong SESSION_IDS = new AtomicLong();
+
+  private static EventDispatcher instance;
+
+  private final Map<Class<?>, Policy> policies = new HashMap<>();
+
+  private final Consumer<Object> deliverer;
+
+  private final Lane uiLane;
+
+  private final Lane backgroundLane;
+
+  public static synchronized EventDispatcher getInstance() {
+    if (instance == null) {
+      instance = new EventDispatcher(event -> MindPixMain.applicationContext.publishEvent(event));
+    }
+    return instance;
+  }
+
+  private EventDispatcher(Consumer<Object> deliverer) {
+    this.deliverer = deliverer;
+    this.uiLane = new Lane("ui", Platform::runLater);
+    this.backgroundLane = new Lane("background", Executors.newSingleThreadExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "event-dispatcher");
+      thread.setDaemon(true);
+      return thread;
+    }));
+
+    register(Events.LoadingImagesEvent.Started.class, Policy.UI_ORDERED);
+    register(Events.LoadingImagesEvent.Finished.class, Policy.UI_ORDERED);
+    register(Events.LoadingImagesEvent.Progress.class, Policy.UI_LATEST);
+    register(Events.NavigationEvent.PrevImage.class, Policy.UI_ORDERED);
+    register(Events.NavigationEvent.NextImage.class, Policy.UI_ORDERED);
+    register(Events.NavigationEvent.GotoImage.class, Policy.UI_ORDERED);
+    register(Events.ActiveThumbnailEvent.ActiveThumbnailChanged.class, Policy.UI_ORDERED);
+    register(Events.SelectionEvent.ToggleSelection.class, Policy.UI_ORDERED);
+    register(Events.SelectionEvent.SelectRange.class, Policy.UI_ORDERED);
+    register(Events.TransferImageEvent.TransferToTab.class, Policy.UI_ORDERED);
+    register(Events.TransferImageEvent.TransferToFirstTab.class, Policy.UI_ORDERED);
+    register(Events.FolderChangeEvent.ImagesRemoved.class, Policy.UI_ORDERED);
+    register(Events.FolderChangeEvent.ImagesChanged.class, Policy.UI_ORDERED);
+  }
+
+  /**
+   * 分配过程的编号，见 {@link Events.LoadingImagesEvent#nextSessionId()}
+   */
+  static long nextSessionId() {
+    return SESSION_IDS.incrementAndGet();
+  }
+
+  public synchronized void register(Class<?> eventType, Policy policy) {
+    policies.put(eventType, policy);
+  }
+
+  private synchronized Policy policyOf(Class<?> eventType) {
+    return policies.getOrDefault(eventType, Policy.SYNC);
+  }
+
+  public void publish(Object event) {
+    Policy policy = policyOf(event.getClass());
+    switch (policy.delivery()) {
+      case UI -> uiLane.enqueue(event, policy.latestWins(), Platform.isFxApplicationThread());
+      case BACKGROUND -> backgroundLane.enqueue(event, policy.latestWins(), false);
+      default -> deliver(event);
+    }
+  }
+
+  private void deliver(Object event) {
+    try {
+      deliverer.accept(event);
+    } catch (RuntimeException e) {
+      log.error("Error delivering event {}", event, e);
+    }
+  }
+
+  public String stats() {
+    return uiLane.stats() + "; " + backgroundLane.stats();
+  }
+
+  /**
+   * 队列中的一个位置，可合并的事件被替换时位置不变
+   */
+  private static class Slot {
+
+    private Object event;
+
+    /**
+     * 可合并事件的合并键，不可合并时为 null
+     */
+    private final Object coalescingKey;
+
+    private Slot(Object event, Object coalescingKey) {
+      this.event = event;
+      this.coalescingKey = coalescingKey;
+    }
+  }
+
+  private static Object coalescingKeyOf(Object event) {
+    return event instanceof Coalescing coalescing
+      ? new CoalescingKey(event.getClass(), coalescing.coalescingKey())
+      : event.getClass();
+  }
+
+  /**
+   * 一条按顺序投递的通道
+   */
+  private class Lane {
+
+    private final String name;
+
+    private final Executor executor;
+
+    private final Deque<Slot> queue = new ArrayDeque<>();
+
+    /**
+     * 尚未投递的可合并事件，按合并键索引
+     */
+    private final Map<Object, Slot> pendingLatest = new HashMap<>();
+
+    private boolean drainScheduled = false;
+
+    private boolean draining = false;
+
+    private int maxDepth = 0;
+
+    private final AtomicLong published = new AtomicLong();
+
+    private final AtomicLong delivered = new AtomicLong();
+
+    private final AtomicLong coalesced = new AtomicLong();
+
+    private Lane(String name, Executor executor) {
+      this.name = name;
+      this.executor = executor;
+    }
+
+    /**
+     * @param onLaneThread 发布者是否已经在通道线程中，此时队列为空就直接投递，不必等待下一次调度
+     */
+    private void enqueue(Object event, boolean latestWins, boolean onLaneThread) {
+      published.incrementAndGet();
+      boolean deliverNow = false;
+      boolean schedule = false;
+      Object coalescingKey = latestWins ? coalescingKeyOf(event) : null;
+      synchronized (this) {
+        Slot pending = coalescingKey != null ? pendingLatest.get(coalescingKey) : null;
+        if (pending != null) {
+          pending.event = event;
+          coalesced.incrementAndGet();
+        } else if (onLaneThread && queue.isEmpty() && !draining) {
+          deliverNow = true;
+        } else {
+          Slot slot = new Slot(event, coalescingKey);
+          queue.addLast(slot);
+          if (coalescingKey != null) {
+            pendingLatest.put(coalescingKey, slot);
+          }
+          maxDepth = Math.max(maxDepth, queue.size());
+          if (!drainScheduled) {
+            drainScheduled = true;
+            schedule = true;
+          }
+        }
+      }
+      if (deliverNow) {
+        delivered.incrementAndGet();
+        deliver(event);
+      } else if (schedule) {
+        executor.execute(this::drain);
+      }
+    }
+
+    private void drain() {
+      while (true) {
+        Object event;
+        synchronized (this) {
+          Slot slot = queue.pollFirst();
+          if (slot == null) {
+            drainScheduled = false;
+            draining = false;
+            return;
+          }
+          if (slot.coalescingKey != null) {
+            pendingLatest.remove(slot.coalescingKey);
+          }
+          event = slot.event;
+          draining = true;
+        }
+        delivered.incrementAndGet();
+        deliver(event);
+      }
+    }
+
+    private synchronized String stats() {
+      return String.format("%s: depth=%d, maxDepth=%d, published=%d, delivered=%d, coalesced=%d",
+        name, queue.size(), maxDepth, published.get(), delivered.get(), coalesced.get());
+    }
+  }
+}
@@ -2,18 +2,45 @@ package com.hyd.mindpix;
 
 import com.hyd.mindpix.components.Thumbnail;
 
+import java.util.List;
+import java.util.function.Consumer;
+
 public interface Events {
 
+  /**
+   * 加载文件夹、提交图片等过程共用一个进度条。每个过程有自己的编号，编号越大开始得越晚，
+   * 界面只显示最近开始的过程，来自更早的过程的事件被忽略
+   */
   interface LoadingImagesEvent {
-    record Started(String folderAbsolutePath) {
+
+    static long nextSessionId() {
+      return EventDispatcher.nextSessionId();
     }
 
-    record Finished() {
+    record Started(long sessionId, String folderAbsolutePath) {
     }
 
-    record Progress(int current, int total) {
+    record Finished(long sessionId) {
+    }
+
+    /**
+     * @param total 总数，还在扫描、总数尚未确定时为 -1
+     */
+    record Progress(long sessionId, int current, int total) implements EventDispatcher.Coalescing {
+
+      /**
+       * 不同过程的进度各自合并，同时进行的两个过程不会互相替换
+       */
+      @Override
+      public Object coalescingKey() {
+        return sessionId;
+      }
+
+      /**
+       * @return 完成的比例，总数未定时返回 -1，进度条显示为不确定进度
+       */
       public double progress() {
-        return (double) current / total;
+        return total <= 0 ? -1 : (double) current / total;
       }
     }
   }
@@ -35,11 +62,42 @@ public interface Events {
     }
   }
 
+  interface SelectionEvent {
+    /**
+     * 切换一张图片的多选状态
+     */
+    record ToggleSelection(Thumbnail thumbnail) {
+    }
+
+    /**
+     * 从上次选择的位置选到这张图片，并查看这张图片
+     */
+    record SelectRange(Thumbnail thumbnail) {
+    }
+  }
+
+  /**
+   * 一次转移的图片按在源列表中的顺序排列，整批移除和添加
+   */
   interface TransferImageEvent {
-    record TransferToTab(int tabNumber, Thumbnail thumbnail) {
+    record TransferToTab(int tabNumber, List<Thumbnail> thumbnails) {
+    }
+
+    record TransferToFirstTab(List<Thumbnail> thumbnails) {
+    }
+  }
+
+  /**
+   * 文件夹监视发现的变化中，不在打开该文件夹的列表里的图片，例如已经转移到其他标签页
+   */
+  interface FolderChangeEvent {
+    record ImagesRemoved(List<String> imagePaths) {
     }
 
-    record TransferToFirstTab(Thumbnail thumbnail) {
+    /**
+     * @param notHeld 用所有标签页中都没有的图片回调，它们是文件夹中的新文件
+     */
+    record ImagesChanged(List<String> imagePaths, Consumer<List<String>> notHeld) {
     }
   }
 }
@@ -1,6 +1,7 @@
 package com.hyd.mindpix;
 
 import com.hyd.mindpix.components.ImageCollectionTab;
+import com.hyd.mindpix.controllers.MainController;
 import javafx.application.Application;
 import javafx.application.Platform;
 import javafx.beans.property.ObjectProperty;
@@ -50,8 +51,9 @@ public class MindPixApplication extends Application {
 
   @Override
   public void stop() {
-    // 应用退出时保存配置
+    // 应用退出时保存配置和各标签页的内容
     MindPixConfig config = MindPixConfig.getInstance();
     config.save();
+    MindPixMain.applicationContext.getBean(MainController.class).saveSession(true);
   }
 }
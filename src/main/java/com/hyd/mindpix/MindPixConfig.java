@@ -8,6 +8,9 @@ import lombok.Data;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * 应用程序配置
@@ -17,17 +20,41 @@ public class MindPixConfig {
 
     private static MindPixConfig instance;
 
+    /**
+     * 按提交顺序写入配置文件，后提交的内容总是最后写入
+     */
+    private static final ExecutorService WRITER = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "config-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     /**
      * 最后打开的目录
      */
     private String lastOpenedDir;
 
+    /**
+     * 最后打开的目录是否包含所有子文件夹
+     */
+    private boolean lastOpenedRecursive;
+
+    /**
+     * 生成缩略图时是否优先使用 JPEG 内嵌的 EXIF 缩略图
+     */
+    private boolean useEmbeddedThumbnail = true;
+
+    /**
+     * 启动时是否用上次保存的快照立即重新打开最后打开的目录，再在后台与实际内容对比
+     */
+    private boolean warmStart = true;
+
     /**
      * 获取配置实例（单例）
      *
      * @return 配置实例
      */
-    public static MindPixConfig getInstance() {
+    public static synchronized MindPixConfig getInstance() {
         if (instance == null) {
             instance = load();
         }
@@ -55,25 +82,46 @@ public class MindPixConfig {
     }
 
     /**
-     * 保存配置到默认配置文件
+     * 保存配置到默认配置文件，等待写入完成
      */
     public void save() {
-        Path configPath = getConfigPath();
         try {
-            // 确保父目录存在
-            Path parent = configPath.getParent();
-            if (parent != null && !Files.exists(parent)) {
-                Files.createDirectories(parent);
-            }
-
-            String content = JSON.toJSONString(this, JSONWriter.Feature.PrettyFormat);
-            Files.writeString(configPath, content);
-        } catch (IOException e) {
-            // 保存失败，忽略（可能是权限问题）
-            e.printStackTrace();
+            WRITER.submit(write(toJson())).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            e.getCause().printStackTrace();
         }
     }
 
+    /**
+     * 在后台保存配置，不等待写入完成，可在 JavaFX 线程中调用。保存的是调用时的内容。
+     */
+    public void saveInBackground() {
+        WRITER.execute(write(toJson()));
+    }
+
+    private String toJson() {
+        return JSON.toJSONString(this, JSONWriter.Feature.PrettyFormat);
+    }
+
+    private static Runnable write(String content) {
+        return () -> {
+            Path configPath = getConfigPath();
+            try {
+                // 确保父目录存在
+                Path parent = configPath.getParent();
+                if (parent != null && !Files.exists(parent)) {
+                    Files.createDirectories(parent);
+                }
+                Files.writeString(configPath, content);
+            } catch (IOException e) {
+                // 保存失败，忽略（可能是权限问题）
+                e.printStackTrace();
+            }
+        };
+    }
+
     /**
      * 获取配置文件路径
      *
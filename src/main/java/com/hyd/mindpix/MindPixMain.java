@@ -13,8 +13,11 @@ public class MindPixMain {
 
   public static ApplicationContext applicationContext;
 
+  /**
+   * 发布事件，按事件类型的策略投递，见 {@link EventDispatcher}
+   */
   public static void publish(Object event) {
-    applicationContext.publishEvent(event);
+    EventDispatcher.getInstance().publish(event);
   }
 
   public static void main(String[] args) {
@@ -2,12 +2,22 @@ package com.hyd.mindpix.components;
 
 import com.hyd.mindpix.Events;
 import com.hyd.mindpix.MindPixMain;
+import com.hyd.mindpix.enums.CommitMode;
+import com.hyd.mindpix.loader.FileCommitter;
+import javafx.application.Platform;
+import javafx.beans.property.BooleanProperty;
+import javafx.beans.property.SimpleBooleanProperty;
+import javafx.geometry.Bounds;
 import javafx.geometry.Insets;
 import javafx.scene.control.*;
 import javafx.scene.input.KeyCode;
+import javafx.stage.DirectoryChooser;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 
+import java.io.File;
+import java.util.List;
+
 @Slf4j
 public class ImageCollectionTab extends Tab {
 
@@ -21,33 +31,48 @@ public class ImageCollectionTab extends Tab {
   @Getter
   private final ThumbnailList thumbnailList = new ThumbnailList();
 
+  /**
+   * 是否正在把图片提交到文件夹，期间不能再次提交
+   */
+  private final BooleanProperty committing = new SimpleBooleanProperty(false);
+
   public ImageCollectionTab(String title) {
     this.title = title;
 
     // 移除关闭按钮
     this.setClosable(false);
 
-    this.thumbnailList.setHgap(10);
-    this.thumbnailList.setVgap(10);
     this.thumbnailList.setPadding(new Insets(10));
 
     this.scrollPane.setContent(this.thumbnailList);
+    this.thumbnailList.attachTo(this.scrollPane);
     this.scrollPane.setFitToWidth(true);
     this.scrollPane.setFitToHeight(true);
     this.scrollPane.setOnKeyPressed(event -> {
-      if (event.getCode() == KeyCode.RIGHT) {
+      if (event.isShiftDown() && (event.getCode() == KeyCode.RIGHT || event.getCode() == KeyCode.LEFT)) {
+        // Shift + 方向键：边移动边扩大选择的一段
+        thumbnailList.extendSelection(event.getCode() == KeyCode.RIGHT ? 1 : -1);
+        event.consume();
+      } else if (event.getCode() == KeyCode.RIGHT) {
         MindPixMain.publish(new Events.NavigationEvent.NextImage());
       } else if (event.getCode() == KeyCode.LEFT) {
         MindPixMain.publish(new Events.NavigationEvent.PrevImage());
+      } else if (event.isShortcutDown() && event.getCode() == KeyCode.A) {
+        thumbnailList.selectAll();
+        event.consume();
+      } else if (event.getCode() == KeyCode.ESCAPE) {
+        thumbnailList.clearSelection();
+        event.consume();
       } else if (event.getCode().isDigitKey()) {
         String digitText = event.getCode().getChar();
         try {
           int tabNumber = Integer.parseInt(digitText);
           if (tabNumber >= 1 && tabNumber <= 9) {
-            var currentThumbnail = thumbnailList.getCurrentActiveThumbnail();
-            if (currentThumbnail != null) {
-              log.debug("Transfer image to tab {}: {}", tabNumber, currentThumbnail.getImagePath());
-              MindPixMain.publish(new Events.TransferImageEvent.TransferToTab(tabNumber, currentThumbnail));
+            // 有多选时转移全部多选的图片，否则转移当前图片
+            var candidates = thumbnailList.getTransferCandidates();
+            if (!candidates.isEmpty()) {
+              log.debug("Transfer {} images to tab {}", candidates.size(), tabNumber);
+              MindPixMain.publish(new Events.TransferImageEvent.TransferToTab(tabNumber, candidates));
               event.consume();
             }
           }
@@ -55,10 +80,10 @@ public class ImageCollectionTab extends Tab {
           log.warn("Invalid digit key: {}", digitText);
         }
       } else if (event.getCode() == KeyCode.BACK_QUOTE) {
-        var currentThumbnail = thumbnailList.getCurrentActiveThumbnail();
-        if (currentThumbnail != null) {
-          log.debug("Transfer image to first tab: {}", currentThumbnail.getImagePath());
-          MindPixMain.publish(new Events.TransferImageEvent.TransferToFirstTab(currentThumbnail));
+        var candidates = thumbnailList.getTransferCandidates();
+        if (!candidates.isEmpty()) {
+          log.debug("Transfer {} images to first tab", candidates.size());
+          MindPixMain.publish(new Events.TransferImageEvent.TransferToFirstTab(candidates));
           event.consume();
         }
       }
@@ -90,7 +115,15 @@ public class ImageCollectionTab extends Tab {
     // 默认禁用第一个Tab的关闭功能
     closeItem.setDisable(MindPixMain.DEFAULT_COLLECTION_NAME.equals(title));
 
-    contextMenu.getItems().add(closeItem);
+    // 把标签页中的全部图片移动或复制到文件夹
+    MenuItem moveItem = new MenuItem("移动到文件夹...");
+    moveItem.setOnAction(_ -> commitToFolder(CommitMode.MOVE));
+    moveItem.disableProperty().bind(committing);
+    MenuItem copyItem = new MenuItem("复制到文件夹...");
+    copyItem.setOnAction(_ -> commitToFolder(CommitMode.COPY));
+    copyItem.disableProperty().bind(committing);
+
+    contextMenu.getItems().addAll(moveItem, copyItem, new SeparatorMenuItem(), closeItem);
 
     // 为Label设置右键菜单
     tabLabel.setContextMenu(contextMenu);
@@ -107,10 +140,48 @@ public class ImageCollectionTab extends Tab {
     });
   }
 
+  private void commitToFolder(CommitMode mode) {
+    List<String> imagePaths = thumbnailList.getImagePaths();
+    if (imagePaths.isEmpty() || tabLabel.getScene() == null) {
+      return;
+    }
+    DirectoryChooser directoryChooser = new DirectoryChooser();
+    directoryChooser.setTitle(mode.getDisplayName() + "图片到文件夹");
+    File dir = directoryChooser.showDialog(tabLabel.getScene().getWindow());
+    if (dir == null || !dir.isDirectory()) {
+      return;
+    }
+
+    committing.set(true);
+    log.info("{} {} images of tab '{}' to {}", mode, imagePaths.size(), title, dir);
+    FileCommitter.getInstance().commit(imagePaths, dir.toPath(), mode,
+      result -> Platform.runLater(() -> onCommitted(result)));
+  }
+
+  private void onCommitted(FileCommitter.Result result) {
+    committing.set(false);
+    if (result.mode() == CommitMode.MOVE) {
+      // 移走的图片不再属于这个标签页
+      thumbnailList.removeThumbnailsByPath(result.completed());
+    }
+    if (!result.failed().isEmpty()) {
+      Alert alert = new Alert(Alert.AlertType.WARNING);
+      alert.setTitle("提交到文件夹");
+      alert.setHeaderText(String.format("有 %d 张图片未能%s到 %s",
+        result.failed().size(), result.mode().getDisplayName(), result.targetDir()));
+      alert.setContentText(String.join("\n", result.failed().subList(0, Math.min(10, result.failed().size()))));
+      alert.showAndWait();
+    }
+  }
+
   public void scrollToActiveThumbnail(Thumbnail thumbnail) {
-    // 获取thumbnail在thumbnailList中的位置（使用父容器坐标系）
-    double thumbnailY = thumbnail.getBoundsInParent().getMinY();
-    double thumbnailHeight = thumbnail.getBoundsInParent().getHeight();
+    // 获取thumbnail在thumbnailList中的位置（单元格可能尚未创建，按网格计算）
+    Bounds thumbnailBounds = thumbnailList.getThumbnailBounds(thumbnail);
+    if (thumbnailBounds == null) {
+      return;
+    }
+    double thumbnailY = thumbnailBounds.getMinY();
+    double thumbnailHeight = thumbnailBounds.getHeight();
 
     // 获取viewport的高度
     double viewportHeight = scrollPane.getViewportBounds().getHeight();
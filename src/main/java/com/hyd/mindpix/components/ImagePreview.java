@@ -5,11 +5,15 @@ import com.hyd.mindpix.MindPixApplication;
 import com.hyd.mindpix.MindPixMain;
 import com.hyd.mindpix.enums.ImageDisplayMode;
 import com.hyd.mindpix.enums.ScaleRatio;
+import com.hyd.mindpix.loader.ImageCache;
+import com.hyd.mindpix.loader.PreviewImage;
+import com.hyd.mindpix.loader.PreviewLoader;
 import javafx.beans.property.ObjectProperty;
 import javafx.beans.property.SimpleObjectProperty;
 import javafx.beans.value.ChangeListener;
 import javafx.geometry.Bounds;
 import javafx.geometry.Insets;
+import javafx.geometry.Rectangle2D;
 import javafx.scene.control.ScrollPane;
 import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
@@ -22,9 +26,13 @@ import javafx.scene.layout.BackgroundFill;
 import javafx.scene.layout.CornerRadii;
 import javafx.scene.layout.StackPane;
 import javafx.scene.paint.Color;
+import javafx.stage.Screen;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 
+import java.awt.Dimension;
+import java.util.List;
+
 @Slf4j
 public class ImagePreview extends ScrollPane {
 
@@ -34,13 +42,48 @@ public class ImagePreview extends ScrollPane {
   @Getter
   private final ImageView imageView = new ImageView();
 
+  /**
+   * 动态模式下解码尺寸的取整步长，视口小幅变化时不必重新解码
+   */
+  private static final int SIZE_STEP = 256;
+
+  /**
+   * 固定模式下原图像素数超过该值时分块显示，只解码视口附近的区域
+   */
+  private static final long TILED_MIN_PIXELS = 32_000_000L;
+
+  /**
+   * 草图最长边的像素数，目标尺寸远大于草图时先显示草图
+   */
+  private static final int DRAFT_SIZE = 1024;
+
+  /**
+   * 缩略图与原图宽高比的最大偏差，超过时（例如缩略图按 EXIF 方向旋转过）不用缩略图占位
+   */
+  private static final double PLACEHOLDER_ASPECT_TOLERANCE = 0.05;
+
+  /**
+   * 原图尺寸，显示的图片可能是缩小解码的版本
+   */
   private double imageWidth = 0;
 
   private double imageHeight = 0;
 
+  private String imagePath;
+
+  private PreviewImage preview;
+
+  private int requestedSize = ImageCache.Key.ORIGINAL;
+
+  /**
+   * 分块显示大图，叠在低分辨率的预览图之上
+   */
+  private final TiledImageView tiledView = new TiledImageView();
+
   private final ChangeListener<Bounds> vpListenerForDynamic = (_, _, newValue) -> {
     if (newValue != null) {
       repaintDynamicImage(newValue);
+      ensureResolution();
     }
   };
 
@@ -49,7 +92,7 @@ public class ImagePreview extends ScrollPane {
   private final ObjectProperty<ScaleRatio> currentScale = new SimpleObjectProperty<>(ScaleRatio.getDefault());
 
   public ImagePreview() {
-    StackPane imageViewWrapper = new StackPane(imageView);
+    StackPane imageViewWrapper = new StackPane(imageView, tiledView);
     imageViewWrapper.setBackground(IMG_BACKGROUND);
     this.setContent(imageViewWrapper);
     this.setOnMouseClicked(this::handleMouseClick);
@@ -60,11 +103,14 @@ public class ImagePreview extends ScrollPane {
     // Set initial properties
     imageView.setPreserveRatio(true);
     imageView.setSmooth(true);
-    imageView.setCache(true);
 
     // Add property listeners
     displayMode.addListener((_, _, _) -> repaintImage());
     currentScale.addListener((_, _, _) -> repaintImage());
+    hvalueProperty().addListener((_, _, _) -> updateVisibleTiles());
+    vvalueProperty().addListener((_, _, _) -> updateVisibleTiles());
+    viewportBoundsProperty().addListener((_, _, _) -> updateVisibleTiles());
+    tiledView.boundsInParentProperty().addListener((_, _, _) -> updateVisibleTiles());
 
     // Add key listeners
     this.addEventFilter(KeyEvent.KEY_PRESSED, event -> {
@@ -83,7 +129,7 @@ public class ImagePreview extends ScrollPane {
               var currentThumbnail = currentTab.getThumbnailList().getCurrentActiveThumbnail();
               if (currentThumbnail != null) {
                 log.debug("Transfer image to tab {} from preview: {}", tabNumber, currentThumbnail.getImagePath());
-                MindPixMain.publish(new Events.TransferImageEvent.TransferToTab(tabNumber, currentThumbnail));
+                MindPixMain.publish(new Events.TransferImageEvent.TransferToTab(tabNumber, List.of(currentThumbnail)));
                 event.consume();
               }
             }
@@ -98,7 +144,7 @@ public class ImagePreview extends ScrollPane {
           var currentThumbnail = currentTab.getThumbnailList().getCurrentActiveThumbnail();
           if (currentThumbnail != null) {
             log.debug("Transfer image to first tab from preview: {}", currentThumbnail.getImagePath());
-            MindPixMain.publish(new Events.TransferImageEvent.TransferToFirstTab(currentThumbnail));
+            MindPixMain.publish(new Events.TransferImageEvent.TransferToFirstTab(List.of(currentThumbnail)));
             event.consume();
           }
         }
@@ -135,9 +181,14 @@ public class ImagePreview extends ScrollPane {
   }
 
   private void repaintImage() {
+    updateTiledView();
     if (this.imageView.getImage() == null) {
       return;
     }
+    ensureResolution();
+
+    // 缓存的是缩放后的位图，固定模式下放大时会占用数倍于原图的显存和内存
+    imageView.setCache(displayMode.get() == ImageDisplayMode.DYNAMIC);
 
     ObjectProperty<Bounds> vpBounds = this.viewportBoundsProperty();
 
@@ -161,6 +212,46 @@ public class ImagePreview extends ScrollPane {
     }
   }
 
+  private boolean isTiled() {
+    return displayMode.get() == ImageDisplayMode.FIXED && imagePath != null && preview != null
+           && (long) imageWidth * (long) imageHeight > TILED_MIN_PIXELS;
+  }
+
+  /**
+   * 大图在固定模式下分块显示，低分辨率的预览图拉伸到相同尺寸垫在下面，图块加载完成前不会出现空白
+   */
+  private void updateTiledView() {
+    if (!isTiled()) {
+      tiledView.setSource(null, 0, 0);
+      tiledView.setVisible(false);
+      tiledView.setManaged(false);
+      return;
+    }
+    double ratio = currentScale.get().getRatio();
+    int subsampling = 1;
+    while (subsampling < TiledImageView.MAX_SUBSAMPLING && ratio * outputScale() * subsampling * 2 <= 1) {
+      subsampling *= 2;
+    }
+    tiledView.setSource(imagePath, (int) imageWidth, (int) imageHeight);
+    tiledView.setScale(ratio, subsampling);
+    tiledView.setManaged(true);
+    tiledView.setVisible(true);
+    updateVisibleTiles();
+  }
+
+  private void updateVisibleTiles() {
+    if (!tiledView.isVisible()) {
+      return;
+    }
+    Bounds viewport = getViewportBounds();
+    Bounds content = getContent().getLayoutBounds();
+    double x = Math.max(0, content.getWidth() - viewport.getWidth()) * getHvalue();
+    double y = Math.max(0, content.getHeight() - viewport.getHeight()) * getVvalue();
+    Bounds tiles = tiledView.getBoundsInParent();
+    tiledView.setVisibleRect(new Rectangle2D(
+      x - tiles.getMinX(), y - tiles.getMinY(), viewport.getWidth(), viewport.getHeight()));
+  }
+
   private void repaintDynamicImage(Bounds viewportBounds) {
     double viewportWidth = viewportBounds.getWidth();
     double viewportHeight = viewportBounds.getHeight();
@@ -168,6 +259,140 @@ public class ImagePreview extends ScrollPane {
     imageView.setFitHeight(viewportHeight);
   }
 
+  /**
+   * 显示图片，按当前显示模式需要的分辨率在后台加载：
+   * 动态模式下按视口尺寸乘以屏幕缩放比例解码，固定模式下需要时才解码原图。
+   * 固定模式下先按屏幕尺寸解码，得知原图尺寸后再决定解码原图还是分块显示。
+   *
+   * @param imagePath 图片路径，为 null 时清空预览
+   */
+  public void showImage(String imagePath) {
+    showImage(imagePath, null);
+  }
+
+  /**
+   * 显示图片，解码完成前先把缩略图放大显示，随后依次换成草图和最终的预览图
+   *
+   * @param imagePath   图片路径，为 null 时清空预览
+   * @param placeholder 该图片的缩略图，可以为 null
+   */
+  public void showImage(String imagePath, Image placeholder) {
+    this.imagePath = imagePath;
+    this.preview = null;
+    showPlaceholder(placeholder);
+    requestImage(displayMode.get() == ImageDisplayMode.DYNAMIC ? requiredSize() : screenSize());
+  }
+
+  /**
+   * 用缩略图占位，显示尺寸按原图尺寸计算，换成清晰的图片时布局不会跳动
+   */
+  private void showPlaceholder(Image placeholder) {
+    if (imagePath == null || placeholder == null || placeholder.isError()
+        || placeholder == Thumbnail.PLACEHOLDER_IMAGE || placeholder.getWidth() <= 0 || placeholder.getHeight() <= 0) {
+      return;
+    }
+    Dimension sourceSize = PreviewLoader.getInstance().getSourceSize(imagePath);
+    if (sourceSize == null) {
+      // 固定模式下显示尺寸取决于原图尺寸，未知时无法占位
+      if (displayMode.get() == ImageDisplayMode.FIXED) {
+        return;
+      }
+      imageWidth = placeholder.getWidth();
+      imageHeight = placeholder.getHeight();
+    } else {
+      double placeholderAspect = placeholder.getWidth() / placeholder.getHeight();
+      double sourceAspect = (double) sourceSize.width / sourceSize.height;
+      if (Math.abs(placeholderAspect / sourceAspect - 1) > PLACEHOLDER_ASPECT_TOLERANCE) {
+        return;
+      }
+      imageWidth = sourceSize.width;
+      imageHeight = sourceSize.height;
+    }
+    imageView.setImage(placeholder);
+    repaintImage();
+  }
+
+  private void requestImage(int size) {
+    requestedSize = size;
+    PreviewLoader.getInstance().load(imagePath, size, draftSizeFor(size), this::setPreview);
+  }
+
+  /**
+   * 目标尺寸远大于草图、且当前显示的图片还不如草图清晰时才需要草图
+   */
+  private int draftSizeFor(int size) {
+    boolean large = size == ImageCache.Key.ORIGINAL || size > DRAFT_SIZE * 2;
+    if (!large || (preview != null && preview.satisfies(DRAFT_SIZE))) {
+      return -1;
+    }
+    return DRAFT_SIZE;
+  }
+
+  private void setPreview(PreviewImage preview) {
+    if (preview == null) {
+      this.preview = null;
+      setImage(null);
+      return;
+    }
+    if (!preview.imagePath().equals(imagePath)) {
+      return;
+    }
+    this.preview = preview;
+    imageView.setImage(preview.image());
+    imageWidth = preview.sourceWidth();
+    imageHeight = preview.sourceHeight();
+    repaintImage();
+  }
+
+  /**
+   * 当前显示的图片分辨率不够时（视口变大、切换到固定模式或放大），请求更清晰的版本
+   */
+  private void ensureResolution() {
+    if (imagePath == null || preview == null) {
+      return;
+    }
+    int required = requiredSize();
+    if (!preview.satisfies(required) && !PreviewImage.covers(requestedSize, required)) {
+      requestImage(required);
+    }
+  }
+
+  private double outputScale() {
+    return getScene() != null && getScene().getWindow() != null
+      ? getScene().getWindow().getOutputScaleX()
+      : Screen.getPrimary().getOutputScaleX();
+  }
+
+  /**
+   * 视口最长边的物理像素数，视口尚未布局时使用屏幕尺寸
+   */
+  private int screenSize() {
+    Bounds viewportBounds = getViewportBounds();
+    double longest = Math.max(viewportBounds.getWidth(), viewportBounds.getHeight());
+    if (longest <= 0) {
+      Rectangle2D screenBounds = Screen.getPrimary().getVisualBounds();
+      longest = Math.max(screenBounds.getWidth(), screenBounds.getHeight());
+    }
+    return (int) Math.ceil(longest * outputScale() / SIZE_STEP) * SIZE_STEP;
+  }
+
+  private int requiredSize() {
+    // 分块显示时清晰的部分由图块提供，预览图只用于垫底
+    if (displayMode.get() == ImageDisplayMode.DYNAMIC || isTiled()) {
+      return screenSize();
+    }
+
+    double sourceLongest = Math.max(imageWidth, imageHeight);
+    if (sourceLongest <= 0) {
+      return ImageCache.Key.ORIGINAL;
+    }
+    double displayed = sourceLongest * currentScale.get().getRatio() * outputScale();
+    if (displayed >= sourceLongest) {
+      return ImageCache.Key.ORIGINAL;
+    }
+    return (int) Math.ceil(displayed / SIZE_STEP) * SIZE_STEP;
+  }
+
   public void setImage(Image image) {
     imageView.setImage(image);
     if (image!= null) {
@@ -0,0 +1,90 @@
+package com.hyd.mindpix.components;
+
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * 把后台线程产生的界面更新攒起来，每个 JavaFX 脉冲统一应用一次，而不是每个结果一个 Platform.runLater。
+ * 每帧最多花费 {@value #FRAME_BUDGET_NANOS} 纳秒，剩下的留到下一帧，大量结果同时完成时滚动依然流畅。
+ * 队列为空时停止计时器，不占用空闲帧。
+ *
+ * @param <T> 更新的内容
+ */
+public class PulseBatcher<T> {
+
+  /**
+   * 每帧应用更新的时间预算，约为 60Hz 帧时间的四分之一
+   */
+  private static final long FRAME_BUDGET_NANOS = 4_000_000L;
+
+  private final Queue<T> updates = new ConcurrentLinkedQueue<>();
+
+  private final AtomicBoolean running = new AtomicBoolean(false);
+
+  private final Consumer<T> applier;
+
+  private final Runnable afterBatch;
+
+  private final AnimationTimer timer = new AnimationTimer() {
+    @Override
+    public void handle(long now) {
+      drain();
+    }
+  };
+
+  /**
+   * @param applier    在 JavaFX 线程中应用一个更新
+   * @param afterBatch 每帧应用完一批更新后在 JavaFX 线程中调用一次
+   */
+  public PulseBatcher(Consumer<T> applier, Runnable afterBatch) {
+    this.applier = applier;
+    this.afterBatch = afterBatch;
+  }
+
+  /**
+   * 提交一个更新，可在任意线程中调用
+   */
+  public void submit(T update) {
+    updates.add(update);
+    if (running.compareAndSet(false, true)) {
+      Platform.runLater(timer::start);
+    }
+  }
+
+  /**
+   * 丢弃尚未应用的更新
+   */
+  public void clear() {
+    updates.clear();
+  }
+
+  private void drain() {
+    long deadline = System.nanoTime() + FRAME_BUDGET_NANOS;
+    int applied = 0;
+    T update;
+    while ((update = updates.poll()) != null) {
+      applier.accept(update);
+      applied++;
+      if (System.nanoTime() >= deadline) {
+        break;
+      }
+    }
+    if (applied > 0) {
+      afterBatch.run();
+    }
+
+    if (updates.isEmpty()) {
+      timer.stop();
+      running.set(false);
+      // 停止期间又有更新提交，但提交者看到的是 running == true，没有重新启动计时器
+      if (!updates.isEmpty() && running.compareAndSet(false, true)) {
+        timer.start();
+      }
+    }
+  }
+}
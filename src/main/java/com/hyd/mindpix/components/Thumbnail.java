@@ -1,105 +1,116 @@
 package com.hyd.mindpix.components;
 
-import com.hyd.mindpix.Events;
 import com.hyd.mindpix.MindPixApplication;
-import com.hyd.mindpix.MindPixMain;
+import com.hyd.mindpix.loader.ThumbnailStore;
 import com.hyd.mindpix.utils.FilenameUtils;
-import javafx.application.Platform;
+import com.hyd.mindpix.utils.PixelBufferPool;
 import javafx.beans.property.BooleanProperty;
+import javafx.beans.property.ObjectProperty;
 import javafx.beans.property.SimpleBooleanProperty;
-import javafx.geometry.Insets;
-import javafx.geometry.Pos;
-import javafx.scene.control.Label;
+import javafx.beans.property.SimpleObjectProperty;
 import javafx.scene.image.Image;
-import javafx.scene.image.ImageView;
-import javafx.scene.layout.StackPane;
 import lombok.Getter;
-import lombok.extern.slf4j.Slf4j;
+import lombok.Setter;
 
 import java.util.Objects;
 
-@Slf4j
-public class Thumbnail extends StackPane {
+/**
+ * 缩略图列表中的一个条目。条目本身不是界面节点，由 {@link ThumbnailList} 在可见时
+ * 绑定到可复用的 {@link ThumbnailCell} 上显示。
+ * <p>
+ * 缩略图加载后以编码形式保存在 {@link ThumbnailStore} 中，条目只在显示期间持有解码后的图片，
+ * 不显示时图片的像素缓冲归还 {@link PixelBufferPool}。
+ */
+public class Thumbnail {
 
   public static final Image PLACEHOLDER_IMAGE = new Image(Objects.requireNonNull(
     Thumbnail.class.getResourceAsStream("/placeholder.png")
   ));
 
   @Getter
-  private final ImageView imageView;
+  private final String imagePath;
 
   @Getter
-  private final Label label;
+  private final String fileName;
 
+  /**
+   * 图片所在的文件夹，递归打开时用于按文件夹分组
+   */
   @Getter
-  private final String imagePath;
+  private final String folderPath;
+
+  private final ObjectProperty<Image> image;
 
   private final SimpleBooleanProperty active = new SimpleBooleanProperty(false);
 
+  /**
+   * 是否在多选中，由 {@link ThumbnailCollection} 维护
+   */
+  private final SimpleBooleanProperty selected = new SimpleBooleanProperty(false);
+
+  /**
+   * 缩略图是否已存入 {@link ThumbnailStore}
+   */
+  @Getter
+  @Setter
+  private boolean loaded = false;
+
+  /**
+   * 是否绑定在屏幕上的单元格中，解码线程据此放弃已经不需要的解码
+   */
+  @Getter
+  @Setter
+  private volatile boolean displayed = false;
+
   public Thumbnail(String imagePath) {
     this(PLACEHOLDER_IMAGE, imagePath);
   }
 
   public Thumbnail(Image image, String imagePath) {
-    this.setMaxWidth(180);
-    this.setMaxHeight(180);
-
     this.imagePath = imagePath;
-    this.imageView = new ImageView(image);
-    this.label = new Label(FilenameUtils.getFileNameFromPath(imagePath));
-
-    imageView.setPreserveRatio(true);
-    imageView.setFitHeight(180);
-    imageView.setFitWidth(180);
-
-    label.setPadding(new Insets(5));
-    label.setAlignment(Pos.BOTTOM_CENTER);
-    label.setWrapText(true);
-
-    StackPane.setAlignment(label, Pos.BOTTOM_CENTER);
-    getChildren().addAll(imageView, label);
+    this.fileName = FilenameUtils.getFileNameFromPath(imagePath);
+    this.folderPath = FilenameUtils.getParentPath(imagePath);
+    this.image = new SimpleObjectProperty<>(image);
 
     this.activeProperty().addListener((_, _, active) -> {
       if (active) {
-        activeStyle();
         MindPixApplication.CURRENT_IMAGE.set(this.imagePath);
-      } else {
-        defaultStyle();
       }
     });
-    defaultStyle();
+  }
 
-    // 这里必须用 Platform.runLater 否则无法获得焦点
-    this.setOnMousePressed(_ -> MindPixMain.publish(new Events.NavigationEvent.GotoImage(this)));
+  public Image getImage() {
+    return this.image.get();
   }
 
-  private void defaultStyle() {
-    this.setStyle("""
-      -fx-background-color: transparent;
-      -fx-background-insets: 0;
-      -fx-padding: 0;
-      -fx-border-color: transparent;
-      -fx-border-radius: 5;
-      -fx-border-width: 5;""");
-    this.label.setStyle("""
-      -fx-background-color: #00000080;
-      -fx-background-insets: 0;
-      -fx-padding: 5;
-      -fx-text-fill: #ffffff;""");
+  public void setImage(Image image) {
+    this.image.set(image);
   }
 
-  private void activeStyle() {
-    this.setStyle("""
-      -fx-background-color: #00000020;
-      -fx-background-insets: 0;
-      -fx-padding: 0;
-      -fx-border-color: #fb6934;
-      -fx-border-radius: 5;
-      -fx-border-width: 5;""");
+  public ObjectProperty<Image> imageProperty() {
+    return this.image;
   }
 
-  public void setImage(Image image) {
-    this.imageView.setImage(image);
+  /**
+   * 显示解码后的缩略图，替换下来的图片归还像素缓冲
+   */
+  public void showImage(Image image) {
+    Image previous = this.image.get();
+    this.image.set(image);
+    if (previous != PLACEHOLDER_IMAGE && previous != image) {
+      PixelBufferPool.getInstance().recycle(previous);
+    }
+  }
+
+  /**
+   * 不再显示时释放解码后的图片，恢复为占位图
+   */
+  public void releaseImage() {
+    showImage(PLACEHOLDER_IMAGE);
+  }
+
+  public boolean hasImage() {
+    return this.image.get() != PLACEHOLDER_IMAGE;
   }
 
   public void setActive(boolean active) {
@@ -114,10 +125,23 @@ public class Thumbnail extends StackPane {
     return this.active;
   }
 
+  public boolean isSelected() {
+    return this.selected.get();
+  }
+
+  void setSelected(boolean selected) {
+    this.selected.set(selected);
+  }
+
+  public BooleanProperty selectedProperty() {
+    return this.selected;
+  }
+
   /**
    * 重置缩略图的选中状态，用于图片转移时
    */
   public void resetState() {
     this.active.set(false);
+    this.selected.set(false);
   }
 }
@@ -0,0 +1,118 @@
+package com.hyd.mindpix.components;
+
+import com.hyd.mindpix.Events;
+import com.hyd.mindpix.MindPixMain;
+import com.hyd.mindpix.loader.ThumbnailLoader;
+import javafx.beans.value.ChangeListener;
+import javafx.geometry.Insets;
+import javafx.geometry.Pos;
+import javafx.scene.control.Label;
+import javafx.scene.image.ImageView;
+import javafx.scene.layout.StackPane;
+import lombok.Getter;
+
+/**
+ * 显示缩略图的界面节点，滚动时在不同的 {@link Thumbnail} 之间复用
+ */
+public class ThumbnailCell extends StackPane {
+
+  public static final int IMAGE_SIZE = ThumbnailLoader.THUMBNAIL_SIZE;
+
+  private final ImageView imageView = new ImageView();
+
+  private final Label label = new Label();
+
+  @Getter
+  private Thumbnail thumbnail;
+
+  private final ChangeListener<Boolean> stateListener = (_, _, _) -> updateStyle();
+
+  public ThumbnailCell() {
+    imageView.setPreserveRatio(true);
+    imageView.setFitHeight(IMAGE_SIZE);
+    imageView.setFitWidth(IMAGE_SIZE);
+
+    label.setPadding(new Insets(5));
+    label.setAlignment(Pos.BOTTOM_CENTER);
+    label.setWrapText(true);
+    label.setStyle("""
+      -fx-background-color: #00000080;
+      -fx-background-insets: 0;
+      -fx-padding: 5;
+      -fx-text-fill: #ffffff;""");
+
+    StackPane.setAlignment(label, Pos.BOTTOM_CENTER);
+    getChildren().addAll(imageView, label);
+    updateStyle();
+
+    // Ctrl（macOS 上为 Command）点击切换多选，Shift 点击选择一段
+    this.setOnMousePressed(event -> {
+      if (thumbnail == null) {
+        return;
+      }
+      if (event.isShortcutDown()) {
+        MindPixMain.publish(new Events.SelectionEvent.ToggleSelection(thumbnail));
+      } else if (event.isShiftDown()) {
+        MindPixMain.publish(new Events.SelectionEvent.SelectRange(thumbnail));
+      } else {
+        MindPixMain.publish(new Events.NavigationEvent.GotoImage(thumbnail));
+      }
+    });
+  }
+
+  /**
+   * 绑定到一个缩略图条目，传入 null 表示解除绑定
+   */
+  public void setThumbnail(Thumbnail thumbnail) {
+    if (this.thumbnail == thumbnail) {
+      return;
+    }
+    if (this.thumbnail != null) {
+      this.thumbnail.activeProperty().removeListener(stateListener);
+      this.thumbnail.selectedProperty().removeListener(stateListener);
+      imageView.imageProperty().unbind();
+    }
+
+    this.thumbnail = thumbnail;
+    if (thumbnail != null) {
+      imageView.imageProperty().bind(thumbnail.imageProperty());
+      label.setText(thumbnail.getFileName());
+      thumbnail.activeProperty().addListener(stateListener);
+      thumbnail.selectedProperty().addListener(stateListener);
+    } else {
+      imageView.setImage(null);
+      label.setText(null);
+    }
+    updateStyle();
+  }
+
+  private void updateStyle() {
+    boolean active = thumbnail != null && thumbnail.isActive();
+    boolean selected = thumbnail != null && thumbnail.isSelected();
+    if (active) {
+      this.setStyle("""
+        -fx-background-color: %s;
+        -fx-background-insets: 0;
+        -fx-padding: 0;
+        -fx-border-color: #fb6934;
+        -fx-border-radius: 5;
+        -fx-border-width: 5;""".formatted(selected ? "#2f80ed60" : "#00000020"));
+    } else if (selected) {
+      this.setStyle("""
+        -fx-background-color: #2f80ed60;
+        -fx-background-insets: 0;
+        -fx-padding: 0;
+        -fx-border-color: #2f80ed;
+        -fx-border-radius: 5;
+        -fx-border-width: 5;""");
+    } else {
+      this.setStyle("""
+        -fx-background-color: transparent;
+        -fx-background-insets: 0;
+        -fx-padding: 0;
+        -fx-border-color: transparent;
+        -fx-border-radius: 5;
+        -fx-border-width: 5;""");
+    }
+  }
+}
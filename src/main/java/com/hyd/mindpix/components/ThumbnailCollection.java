@@ -0,0 +1,359 @@
+package com.hyd.mindpix.components;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 有序的缩略图集合，与界面节点无关。除按位置存取外，还维护从条目到位置的索引和当前选中的条目，
+ * 查找位置、上一张、下一张和跳转都是 O(1)。
+ * <p>
+ * 插入或删除只让变动位置之后的索引失效，下一次查找时从失效处重建一次，连续导航不会触发重建。
+ * <p>
+ * 除当前查看的条目外，还维护一组多选的条目，用于批量转移。多选状态同步到条目的
+ * {@link Thumbnail#selectedProperty()} 上，供单元格显示。只在 JavaFX 线程中访问。
+ */
+public class ThumbnailCollection {
+
+  private final List<Thumbnail> entries = new ArrayList<>();
+
+  private final Map<Thumbnail, Integer> positions = new IdentityHashMap<>();
+
+  /**
+   * 位置在此之前的条目，其索引是准确的
+   */
+  private int indexedUpTo = 0;
+
+  private Thumbnail active;
+
+  /**
+   * 条目每变化一次加一，用于判断是否需要重新保存；选中的条目变化不计入，单独保存
+   */
+  private long version = 0;
+
+  private final Set<Thumbnail> selection = Collections.newSetFromMap(new IdentityHashMap<>());
+
+  /**
+   * 范围选择的起点
+   */
+  private Thumbnail anchor;
+
+  public int size() {
+    return entries.size();
+  }
+
+  public boolean isEmpty() {
+    return entries.isEmpty();
+  }
+
+  public long getVersion() {
+    return version;
+  }
+
+  public Thumbnail get(int index) {
+    return entries.get(index);
+  }
+
+  public Thumbnail getFirst() {
+    return entries.getFirst();
+  }
+
+  /**
+   * 一段条目的只读视图，集合变动后失效
+   */
+  public List<Thumbnail> view(int from, int to) {
+    return Collections.unmodifiableList(entries.subList(from, to));
+  }
+
+  /**
+   * @return 条目的位置，不在集合中时返回 -1
+   */
+  public int indexOf(Thumbnail thumbnail) {
+    Integer position = positions.get(thumbnail);
+    if (position == null) {
+      return -1;
+    }
+    if (position >= indexedUpTo) {
+      reindex();
+      position = positions.get(thumbnail);
+    }
+    return position;
+  }
+
+  public boolean contains(Thumbnail thumbnail) {
+    return positions.containsKey(thumbnail);
+  }
+
+  private void reindex() {
+    for (int i = indexedUpTo; i < entries.size(); i++) {
+      positions.put(entries.get(i), i);
+    }
+    indexedUpTo = entries.size();
+  }
+
+  /**
+   * 添加到末尾，已在集合中的条目被忽略
+   */
+  public void add(Thumbnail thumbnail) {
+    if (positions.containsKey(thumbnail)) {
+      return;
+    }
+    int position = entries.size();
+    entries.add(thumbnail);
+    version++;
+    positions.put(thumbnail, position);
+    if (indexedUpTo == position) {
+      indexedUpTo++;
+    }
+  }
+
+  public void addAll(Collection<Thumbnail> thumbnails) {
+    thumbnails.forEach(this::add);
+  }
+
+  /**
+   * 把一批条目并入集合，集合中的条目须已按同一顺序排列。只重排第一个插入位置之后的条目，
+   * 新条目都排在末尾时只是追加。已在集合中的条目被忽略。
+   */
+  public void merge(Collection<Thumbnail> thumbnails, Comparator<Thumbnail> order) {
+    List<Thumbnail> sorted = thumbnails.stream()
+      .filter(thumbnail -> !positions.containsKey(thumbnail))
+      .sorted(order)
+      .toList();
+    if (sorted.isEmpty()) {
+      return;
+    }
+
+    // 第一个插入位置：第一个排在最小的新条目之后的条目
+    Thumbnail first = sorted.getFirst();
+    int low = 0;
+    int high = entries.size();
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (order.compare(entries.get(mid), first) <= 0) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+
+    List<Thumbnail> tail = new ArrayList<>(entries.subList(low, entries.size()));
+    entries.subList(low, entries.size()).clear();
+    int i = 0;
+    int j = 0;
+    while (i < tail.size() || j < sorted.size()) {
+      if (j >= sorted.size() || (i < tail.size() && order.compare(tail.get(i), sorted.get(j)) <= 0)) {
+        entries.add(tail.get(i++));
+      } else {
+        Thumbnail thumbnail = sorted.get(j++);
+        positions.put(thumbnail, entries.size());
+        entries.add(thumbnail);
+      }
+    }
+    version++;
+    if (tail.isEmpty() && indexedUpTo == low) {
+      indexedUpTo = entries.size();
+    } else {
+      indexedUpTo = Math.min(indexedUpTo, low);
+    }
+  }
+
+  /**
+   * 用新的顺序替换全部条目，选中的条目不在其中时取消选中
+   */
+  public void setAll(List<Thumbnail> thumbnails) {
+    entries.clear();
+    positions.clear();
+    indexedUpTo = 0;
+    version++;
+    addAll(thumbnails);
+    if (active != null && !positions.containsKey(active)) {
+      active = null;
+    }
+    selection.removeIf(thumbnail -> !positions.containsKey(thumbnail));
+  }
+
+  /**
+   * 移除一个条目。选中的条目被移除时不再有选中的条目，由调用者决定选中哪一个。
+   *
+   * @return 被移除条目原来的位置，不在集合中时返回 -1
+   */
+  public int remove(Thumbnail thumbnail) {
+    int position = indexOf(thumbnail);
+    if (position < 0) {
+      return -1;
+    }
+    entries.remove(position);
+    positions.remove(thumbnail);
+    version++;
+    indexedUpTo = Math.min(indexedUpTo, position);
+    if (thumbnail == active) {
+      active = null;
+    }
+    deselect(thumbnail);
+    return position;
+  }
+
+  /**
+   * 一次移除多个条目，只遍历一遍
+   *
+   * @return 第一个被移除条目原来的位置，没有移除任何条目时返回 -1
+   */
+  public int removeAll(Set<Thumbnail> removed) {
+    int first = -1;
+    int kept = 0;
+    for (int i = 0; i < entries.size(); i++) {
+      Thumbnail thumbnail = entries.get(i);
+      if (removed.contains(thumbnail)) {
+        positions.remove(thumbnail);
+        deselect(thumbnail);
+        if (first < 0) {
+          first = i;
+        }
+      } else {
+        entries.set(kept++, thumbnail);
+      }
+    }
+    if (first < 0) {
+      return -1;
+    }
+    entries.subList(kept, entries.size()).clear();
+    version++;
+    indexedUpTo = Math.min(indexedUpTo, first);
+    if (active != null && removed.contains(active)) {
+      active = null;
+    }
+    return first;
+  }
+
+  public void clear() {
+    entries.clear();
+    positions.clear();
+    indexedUpTo = 0;
+    version++;
+    active = null;
+    clearSelection();
+  }
+
+  //----------------------------------------------------
+  // 选中的条目
+
+  public Thumbnail getActive() {
+    return active;
+  }
+
+  /**
+   * @return 选中条目的位置，没有选中时返回 -1
+   */
+  public int getActiveIndex() {
+    return active == null ? -1 : indexOf(active);
+  }
+
+  /**
+   * 记录选中的条目，不改变条目本身的状态
+   */
+  public void setActive(Thumbnail thumbnail) {
+    this.active = thumbnail != null && positions.containsKey(thumbnail) ? thumbnail : null;
+  }
+
+  /**
+   * 相对于选中条目偏移若干位置的条目，超出范围时停在两端；没有选中时从第一个算起
+   *
+   * @return 目标条目，集合为空时返回 null
+   */
+  public Thumbnail neighbor(int offset) {
+    if (entries.isEmpty()) {
+      return null;
+    }
+    int index = getActiveIndex();
+    int target = index < 0 ? 0 : Math.max(0, Math.min(index + offset, entries.size() - 1));
+    return entries.get(target);
+  }
+
+  //----------------------------------------------------
+  // 多选的条目
+
+  public boolean hasSelection() {
+    return !selection.isEmpty();
+  }
+
+  public int getSelectionSize() {
+    return selection.size();
+  }
+
+  /**
+   * 多选的条目，按在集合中的顺序排列
+   */
+  public List<Thumbnail> getSelection() {
+    if (selection.size() * 8L > entries.size()) {
+      // 选中的条目很多时顺序扫描一遍，比逐个查位置再排序快
+      return entries.stream().filter(selection::contains).toList();
+    }
+    return selection.stream().sorted(Comparator.comparingInt(this::indexOf)).toList();
+  }
+
+  /**
+   * 切换一个条目的选中状态，并作为下一次范围选择的起点
+   */
+  public void toggleSelection(Thumbnail thumbnail) {
+    if (!positions.containsKey(thumbnail)) {
+      return;
+    }
+    if (selection.contains(thumbnail)) {
+      deselect(thumbnail);
+    } else {
+      select(thumbnail);
+    }
+    anchor = thumbnail;
+  }
+
+  /**
+   * 选中从起点到指定条目之间的全部条目，替换原来的多选。没有起点时以当前查看的条目为起点。
+   */
+  public void selectRange(Thumbnail to) {
+    int end = indexOf(to);
+    if (end < 0) {
+      return;
+    }
+    if (anchor == null || !positions.containsKey(anchor)) {
+      anchor = active != null ? active : to;
+    }
+    int start = indexOf(anchor);
+    Thumbnail keptAnchor = anchor;
+    clearSelection();
+    anchor = keptAnchor;
+    for (int i = Math.min(start, end); i <= Math.max(start, end); i++) {
+      select(entries.get(i));
+    }
+  }
+
+  public void selectAll() {
+    entries.forEach(this::select);
+  }
+
+  public void clearSelection() {
+    selection.forEach(thumbnail -> thumbnail.setSelected(false));
+    selection.clear();
+    anchor = null;
+  }
+
+  private void select(Thumbnail thumbnail) {
+    if (selection.add(thumbnail)) {
+      thumbnail.setSelected(true);
+    }
+  }
+
+  private void deselect(Thumbnail thumbnail) {
+    if (selection.remove(thumbnail)) {
+      thumbnail.setSelected(false);
+    }
+    if (thumbnail == anchor) {
+      anchor = null;
+    }
+  }
+}
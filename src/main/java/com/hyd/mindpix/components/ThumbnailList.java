@@ -1,66 +1,346 @@
 package com.hyd.mindpix.components;
 
 import com.hyd.mindpix.Events;
-import com.hyd.mindpix.Events.LoadingImagesEvent;
+import com.hyd.mindpix.MindPixConfig;
 import com.hyd.mindpix.MindPixMain;
-import com.hyd.mindpix.utils.ImageUtils;
+import com.hyd.mindpix.loader.DecodeService;
+import com.hyd.mindpix.loader.DirectoryScanner;
+import com.hyd.mindpix.loader.FolderWatcher;
+import com.hyd.mindpix.loader.ImageCache;
+import com.hyd.mindpix.loader.LoadingSession;
+import com.hyd.mindpix.loader.PreviewLoader;
+import com.hyd.mindpix.loader.PreviewPrefetcher;
+import com.hyd.mindpix.loader.SessionStore;
+import com.hyd.mindpix.loader.ThumbnailCallback;
+import com.hyd.mindpix.loader.ThumbnailLoader;
+import com.hyd.mindpix.loader.ThumbnailStore;
+import com.hyd.mindpix.utils.PixelBufferPool;
 import javafx.application.Platform;
 import javafx.beans.property.BooleanProperty;
 import javafx.beans.property.SimpleBooleanProperty;
-import javafx.embed.swing.SwingFXUtils;
-import javafx.scene.Node;
+import javafx.geometry.BoundingBox;
+import javafx.geometry.Bounds;
+import javafx.geometry.Orientation;
 import javafx.scene.control.Alert;
+import javafx.scene.control.ScrollPane;
+import javafx.scene.image.Image;
 import javafx.scene.input.DragEvent;
 import javafx.scene.input.TransferMode;
-import javafx.scene.layout.FlowPane;
-import lombok.Getter;
+import javafx.scene.layout.Region;
 import lombok.extern.slf4j.Slf4j;
 
-import javax.imageio.ImageIO;
-import java.awt.image.BufferedImage;
-import java.io.File;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.*;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
 
+/**
+ * 虚拟化的缩略图网格：只为可见行（以及上下各 {@value #OVERSCAN_ROWS} 行）创建
+ * {@link ThumbnailCell}，滚动时回收复用，节点数量与文件夹中的图片数量无关。
+ * 需要通过 {@link #attachTo(ScrollPane)} 放入 ScrollPane 中使用。
+ */
 @Slf4j
-public class ThumbnailList extends FlowPane {
+public class ThumbnailList extends Region {
 
   private static final Set<String> SUPPORTED_IMAGE_EXTENSIONS = Set.of(
     ".jpg", ".png", ".jpeg", ".gif", ".bmp", ".webp"
   );
 
-  private volatile String currentFolder;
+  /**
+   * 单元格尺寸，包含 5px 的边框
+   */
+  public static final double CELL_SIZE = ThumbnailCell.IMAGE_SIZE + 10;
+
+  public static final double GAP = 10;
+
+  private static final int OVERSCAN_ROWS = 2;
+
+  private static final int PREFETCH_ROWS = 4;
+
+  /**
+   * 先按所在文件夹、再按文件名排序，递归打开时同一文件夹中的图片排在一起
+   */
+  private static final Comparator<Thumbnail> PATH_ORDER =
+    Comparator.comparing(Thumbnail::getFolderPath).thenComparing(Thumbnail::getFileName);
+
+  private final ThumbnailCollection thumbnails = new ThumbnailCollection();
+
+  private final Map<Thumbnail, ThumbnailCell> visibleCells = new HashMap<>();
+
+  private final Deque<ThumbnailCell> freeCells = new ArrayDeque<>();
+
+  private ScrollPane scrollPane;
+
+  private LoadingSession loadingSession;
+
+  /**
+   * 列表中的图片按路径索引，与列表同步增删；打开新文件夹时整体替换
+   */
+  private Map<String, Thumbnail> thumbnailsByPath = new ConcurrentHashMap<>();
+
+  private FolderWatcher folderWatcher;
+
+  /**
+   * 恢复的缩略图是否还没有开始加载
+   */
+  private boolean restorePending = false;
+
+  /**
+   * @param image 解码后的图片，缩略图加载时不在屏幕上则为 null
+   */
+  private record LoadedThumbnail(Thumbnail thumbnail, Image image) {
+  }
+
+  /**
+   * 加载完成和解码完成的缩略图每帧统一显示一次
+   */
+  private final PulseBatcher<LoadedThumbnail> loadedThumbnails = new PulseBatcher<>(
+    this::applyLoadedThumbnail, this::selectFirstLoaded);
+
+  /**
+   * 扫描到的一批缩略图及所属的加载过程，过程被取代后不再并入列表
+   */
+  private record DiscoveredThumbnails(LoadingSession session, List<Thumbnail> thumbnails) {
+  }
+
+  /**
+   * 扫描到的缩略图每帧统一并入列表一次，而不是每批合并一次
+   */
+  private final PulseBatcher<DiscoveredThumbnails> discoveredThumbnails = new PulseBatcher<>(
+    this::collectDiscovered, this::mergeDiscovered);
+
+  private final List<Thumbnail> pendingDiscovered = new ArrayList<>();
+
+  private double lastViewportTop = 0;
+
+  private int prioritizedFrom = -1;
 
-  @Getter
-  private Thumbnail currentActiveThumbnail;
+  private int prioritizedTo = -1;
 
   public ThumbnailList() {
     setOnDragOver(this::handleDragOver);
     setOnDragDropped(this::handleDragDropped);
   }
 
-  private List<Thumbnail> getThumbnailList() {
-    return getChildrenUnmodifiable().stream()
-      .filter(node -> node instanceof Thumbnail).map(node -> (Thumbnail) node)
-      .toList();
+  /**
+   * 关联外层的 ScrollPane，滚动或视口变化时重新计算可见单元格
+   */
+  public void attachTo(ScrollPane scrollPane) {
+    this.scrollPane = scrollPane;
+    scrollPane.vvalueProperty().addListener((_, _, _) -> requestLayout());
+    scrollPane.viewportBoundsProperty().addListener((_, _, _) -> requestLayout());
   }
 
-  public void changeActiveThumbnail(int offset) {
-    int currentIndex = -1;
-    var thumbnails = getThumbnailList();
-    if (currentActiveThumbnail != null) {
-      currentIndex = thumbnails.indexOf(currentActiveThumbnail);
+  //----------------------------------------------------
+  // 布局
+
+  @Override
+  public Orientation getContentBias() {
+    return Orientation.HORIZONTAL;
+  }
+
+  @Override
+  protected double computeMinWidth(double height) {
+    return snappedLeftInset() + CELL_SIZE + snappedRightInset();
+  }
+
+  @Override
+  protected double computePrefWidth(double height) {
+    return computeMinWidth(height);
+  }
+
+  @Override
+  protected double computeMinHeight(double width) {
+    // 与 FlowPane 一样，最小高度等于首选高度，ScrollPane 的 fitToHeight 才不会压缩内容
+    return computePrefHeight(width);
+  }
+
+  @Override
+  protected double computePrefHeight(double width) {
+    int rows = rowCount(width < 0 ? getWidth() : width);
+    double contentHeight = rows == 0 ? 0 : rows * CELL_SIZE + (rows - 1) * GAP;
+    return snappedTopInset() + contentHeight + snappedBottomInset();
+  }
+
+  private int columnCount(double width) {
+    double available = width - snappedLeftInset() - snappedRightInset();
+    return Math.max(1, (int) ((available + GAP) / (CELL_SIZE + GAP)));
+  }
+
+  private int rowCount(double width) {
+    int columns = columnCount(width);
+    return (thumbnails.size() + columns - 1) / columns;
+  }
+
+  private double getViewportTop() {
+    double viewportHeight = scrollPane.getViewportBounds().getHeight();
+    double range = scrollPane.getVmax() - scrollPane.getVmin();
+    if (getHeight() <= viewportHeight || range <= 0) {
+      return 0;
+    }
+    return (scrollPane.getVvalue() - scrollPane.getVmin()) / range * (getHeight() - viewportHeight);
+  }
+
+  @Override
+  protected void layoutChildren() {
+    int columns = columnCount(getWidth());
+    double rowHeight = CELL_SIZE + GAP;
+    double viewportTop = 0;
+    double viewportHeight = getHeight();
+    if (scrollPane != null) {
+      viewportTop = getViewportTop();
+      viewportHeight = scrollPane.getViewportBounds().getHeight();
+    }
+
+    int firstVisibleRow = Math.max(0, (int) Math.floor((viewportTop - snappedTopInset()) / rowHeight));
+    int lastVisibleRow = Math.max(0, (int) Math.floor((viewportTop + viewportHeight - snappedTopInset()) / rowHeight));
+    int from = Math.min(thumbnails.size(), Math.max(0, firstVisibleRow - OVERSCAN_ROWS) * columns);
+    int to = Math.min(thumbnails.size(), (lastVisibleRow + OVERSCAN_ROWS + 1) * columns);
+
+    // 回收不再可见的单元格
+    visibleCells.entrySet().removeIf(entry -> {
+      int index = thumbnails.indexOf(entry.getKey());
+      if (index < from || index >= to) {
+        releaseCell(entry.getValue());
+        return true;
+      }
+      return false;
+    });
+
+    for (int i = from; i < to; i++) {
+      Thumbnail thumbnail = thumbnails.get(i);
+      ThumbnailCell cell = visibleCells.computeIfAbsent(thumbnail, this::acquireCell);
+      Bounds bounds = cellBounds(i, columns);
+      cell.resizeRelocate(bounds.getMinX(), bounds.getMinY(), CELL_SIZE, CELL_SIZE);
+    }
+
+    int scrollDirection = Double.compare(viewportTop, lastViewportTop);
+    lastViewportTop = viewportTop;
+    updateLoadingPriority(
+      Math.min(thumbnails.size(), firstVisibleRow * columns),
+      Math.min(thumbnails.size(), (lastVisibleRow + 1) * columns),
+      columns, scrollDirection);
+  }
+
+  /**
+   * 根据可见区域调整缩略图加载顺序：可见的优先，其次是滚动方向上的 {@value #PREFETCH_ROWS} 行
+   */
+  private void updateLoadingPriority(int visibleFrom, int visibleTo, int columns, int scrollDirection) {
+    if (loadingSession == null || loadingSession.isCancelled()) {
+      return;
+    }
+    if (visibleFrom == prioritizedFrom && visibleTo == prioritizedTo) {
+      return;
     }
+    prioritizedFrom = visibleFrom;
+    prioritizedTo = visibleTo;
 
-    int newIndex = Math.max(0, Math.min(currentIndex + offset, thumbnails.size() - 1));
+    int band = PREFETCH_ROWS * columns;
+    List<String> prefetchPaths;
+    if (scrollDirection < 0) {
+      prefetchPaths = pathsOf(Math.max(0, visibleFrom - band), visibleFrom).reversed();
+    } else {
+      prefetchPaths = pathsOf(visibleTo, Math.min(thumbnails.size(), visibleTo + band));
+    }
+    loadingSession.prioritize(pathsOf(visibleFrom, visibleTo), prefetchPaths);
+  }
+
+  private List<String> pathsOf(int from, int to) {
+    return thumbnails.view(from, to).stream().map(Thumbnail::getImagePath).toList();
+  }
+
+  private Bounds cellBounds(int index, int columns) {
+    int row = index / columns;
+    int column = index % columns;
+    double x = snappedLeftInset() + column * (CELL_SIZE + GAP);
+    double y = snappedTopInset() + row * (CELL_SIZE + GAP);
+    return new BoundingBox(x, y, CELL_SIZE, CELL_SIZE);
+  }
+
+  /**
+   * 获取缩略图在列表中的位置，与是否创建了单元格无关
+   *
+   * @return 缩略图的边界，不在列表中时返回 null
+   */
+  public Bounds getThumbnailBounds(Thumbnail thumbnail) {
+    int index = thumbnails.indexOf(thumbnail);
+    return index < 0 ? null : cellBounds(index, columnCount(getWidth()));
+  }
+
+  private ThumbnailCell acquireCell(Thumbnail thumbnail) {
+    ThumbnailCell cell = freeCells.poll();
+    if (cell == null) {
+      cell = new ThumbnailCell();
+      cell.setManaged(false);
+      getChildren().add(cell);
+    }
+    cell.setThumbnail(thumbnail);
+    cell.setVisible(true);
+    thumbnail.setDisplayed(true);
+    if (thumbnail.isLoaded() && !thumbnail.hasImage()) {
+      inflate(thumbnail);
+    }
+    return cell;
+  }
+
+  private void releaseCell(ThumbnailCell cell) {
+    Thumbnail thumbnail = cell.getThumbnail();
+    if (thumbnail != null) {
+      thumbnail.setDisplayed(false);
+      thumbnail.releaseImage();
+    }
+    cell.setThumbnail(null);
+    cell.setVisible(false);
+    freeCells.push(cell);
+  }
+
+  /**
+   * 立即回收被移除的缩略图的单元格，不等下一次布局。缩略图可能马上被添加到另一个列表中显示，
+   * 晚一步回收会把那边刚解码的图片释放掉。
+   */
+  private void releaseCellOf(Thumbnail thumbnail) {
+    ThumbnailCell cell = visibleCells.remove(thumbnail);
+    if (cell != null) {
+      releaseCell(cell);
+    }
+  }
+
+  private void releaseAllCells() {
+    visibleCells.values().forEach(this::releaseCell);
+    visibleCells.clear();
+  }
+
+  //----------------------------------------------------
+
+  public Thumbnail getCurrentActiveThumbnail() {
+    return thumbnails.getActive();
+  }
+
+  /**
+   * 缩略图集合，只读访问
+   */
+  public ThumbnailCollection getThumbnails() {
+    return thumbnails;
+  }
+
+  public void changeActiveThumbnail(int offset) {
+    int currentIndex = thumbnails.getActiveIndex();
+    Thumbnail th = thumbnails.neighbor(offset);
+    if (th == null) {
+      return;
+    }
+    int newIndex = thumbnails.indexOf(th);
     if (currentIndex != newIndex) {
       if (currentIndex >= 0) {
         thumbnails.get(currentIndex).setActive(false);
       }
-      Thumbnail th = thumbnails.get(newIndex);
+      // 先记录再激活，CURRENT_IMAGE 的侦听器可以通过 getCurrentActiveThumbnail() 拿到缩略图
+      thumbnails.setActive(th);
       th.setActive(true);
-      currentActiveThumbnail = th;
+      prefetchNeighbors(newIndex, newIndex - currentIndex);
       MindPixMain.publish(new Events.ActiveThumbnailEvent.ActiveThumbnailChanged(th));
     }
   }
@@ -69,21 +349,85 @@ public class ThumbnailList extends FlowPane {
     if (th == null || th.isActive()) {
       return;
     }
-    if (currentActiveThumbnail != null) {
-      currentActiveThumbnail.setActive(false);
+    Thumbnail previous = thumbnails.getActive();
+    int previousIndex = thumbnails.getActiveIndex();
+    if (previous != null) {
+      previous.setActive(false);
     }
+    thumbnails.setActive(th);
     th.setActive(true);
-    currentActiveThumbnail = th;
+    int index = thumbnails.indexOf(th);
+    if (index >= 0) {
+      prefetchNeighbors(index, previousIndex < 0 ? 0 : index - previousIndex);
+    }
     MindPixMain.publish(new Events.ActiveThumbnailEvent.ActiveThumbnailChanged(th));
   }
 
+  private void prefetchNeighbors(int index, int offset) {
+    PreviewPrefetcher.getInstance().navigate(
+      index, thumbnails.size(), i -> thumbnails.get(i).getImagePath(), offset);
+  }
+
+  //----------------------------------------------------
+  // 多选
+
+  public void toggleSelection(Thumbnail thumbnail) {
+    thumbnails.toggleSelection(thumbnail);
+  }
+
+  /**
+   * 选择从上次选择的位置（没有时为当前查看的图片）到指定缩略图之间的一段，并查看该缩略图
+   */
+  public void selectRange(Thumbnail thumbnail) {
+    thumbnails.selectRange(thumbnail);
+    changeActiveThumbnail(thumbnail);
+  }
+
+  /**
+   * 查看相邻的图片，同时把它加入选择的一段中
+   */
+  public void extendSelection(int offset) {
+    Thumbnail target = thumbnails.neighbor(offset);
+    if (target != null) {
+      selectRange(target);
+    }
+  }
+
+  public void selectAll() {
+    thumbnails.selectAll();
+  }
+
+  public void clearSelection() {
+    thumbnails.clearSelection();
+  }
+
+  /**
+   * 列表中全部图片的路径，按显示顺序排列
+   */
+  public List<String> getImagePaths() {
+    return pathsOf(0, thumbnails.size());
+  }
+
+  /**
+   * 转移时要移动的缩略图：有多选时为全部多选的缩略图，否则为当前查看的缩略图
+   */
+  public List<Thumbnail> getTransferCandidates() {
+    if (thumbnails.hasSelection()) {
+      return thumbnails.getSelection();
+    }
+    Thumbnail active = thumbnails.getActive();
+    return active == null ? List.of() : List.of(active);
+  }
+
   public Thumbnail popupCurrentThumbnail() {
-    if (currentActiveThumbnail == null) {
+    var result = thumbnails.getActive();
+    if (result == null) {
       return null;
     }
-    var result = currentActiveThumbnail;
-    getChildren().remove(currentActiveThumbnail);
-    currentActiveThumbnail = null;
+    thumbnails.remove(result);
+    thumbnailsByPath.remove(result.getImagePath(), result);
+    releaseCellOf(result);
+    requestLayout();
     return result;
   }
 
@@ -122,118 +466,564 @@ public class ThumbnailList extends FlowPane {
     event.consume();
   }
 
-  private int getChildIndex(Node node) {
-    return getChildren().indexOf(node);
+  public void openDirectory(String absolutePath) {
+    openDirectory(absolutePath, false);
   }
 
-  public void openDirectory(String absolutePath) {
+  /**
+   * 打开文件夹
+   *
+   * @param absolutePath 文件夹绝对路径
+   * @param recursive    是否包含所有子文件夹中的图片，此时按子文件夹分组显示，不监视文件变化
+   */
+  public void openDirectory(String absolutePath, boolean recursive) {
+
+    // 目录和打开方式一起保存，下次启动时按同样的方式重新打开
+    MindPixConfig config = MindPixConfig.getInstance();
+    config.setLastOpenedDir(absolutePath);
+    config.setLastOpenedRecursive(recursive);
+    config.saveInBackground();
+
+    if (loadingSession != null) {
+      loadingSession.cancel();
+    }
+    if (folderWatcher != null) {
+      folderWatcher.close();
+      folderWatcher = null;
+    }
+    loadedThumbnails.clear();
+    discoveredThumbnails.clear();
+    pendingDiscovered.clear();
+    releaseAllCells();
+    restorePending = false;
+    if (thumbnails.getActive() != null) {
+      thumbnails.getActive().setActive(false);
+    }
+    thumbnails.clear();
+    requestLayout();
 
-    currentFolder = absolutePath;
-    this.getChildren().clear();
-    var files = Objects.requireNonNull(new File(absolutePath).listFiles());
-    Arrays.sort(files, Comparator.comparing(File::getName));
-    for (File file : files) {
-      if (file.isFile() && SUPPORTED_IMAGE_EXTENSIONS.stream().anyMatch(ext -> file.getName().endsWith(ext))) {
-        Thumbnail thumbnail = new Thumbnail(file.getAbsolutePath());
-        this.getChildren().add(thumbnail);
+    prioritizedFrom = -1;
+    prioritizedTo = -1;
+    thumbnailsByPath = new ConcurrentHashMap<>();
+    var byPath = thumbnailsByPath;
+
+    LoadingSession session = ThumbnailLoader.getInstance().open(absolutePath, newLoadingCallback(byPath, true));
+    loadingSession = session;
+    if (!recursive) {
+      watchFolder(absolutePath);
+    }
+
+    // 在后台边扫描边加入，第一批文件读到后立即显示
+    var firstBatch = new AtomicBoolean(true);
+    Thread.startVirtualThread(() -> {
+      var listed = new ArrayList<Path>();
+      try {
+        Consumer<List<Path>> onBatch = batch -> {
+          listed.addAll(batch);
+          // 扫描期间文件夹监视可能已经加入了同一个文件
+          List<Thumbnail> discovered = new ArrayList<>();
+          for (Path path : batch) {
+            Thumbnail thumbnail = new Thumbnail(path.toString());
+            if (byPath.putIfAbsent(thumbnail.getImagePath(), thumbnail) == null) {
+              discovered.add(thumbnail);
+            }
+          }
+          // 按显示顺序加载；排在最前的图片加载完后会被自动选中预览，生成它的缩略图时直接按预览尺寸解码，
+          // 预览不必再解码一次。先按第一批猜测，合并到列表后再以列表中的第一张为准
+          discovered.sort(PATH_ORDER);
+          if (firstBatch.getAndSet(false) && !discovered.isEmpty()) {
+            DecodeService.getInstance().expectPreview(discovered.getFirst().getImagePath());
+          }
+          discoveredThumbnails.submit(new DiscoveredThumbnails(session, discovered));
+          session.addImages(discovered.stream().map(Thumbnail::getImagePath).toList());
+        };
+        scanFolder(absolutePath, recursive, session::isCancelled, onBatch);
+      } catch (IOException e) {
+        log.error("Error scanning folder {}", absolutePath, e);
+        return;
+      } finally {
+        session.finishAdding();
+      }
+      if (!session.isCancelled()) {
+        // 记下文件夹的内容，下次启动时据此找出变化的文件
+        SessionStore.getInstance().saveFolderSnapshot(SessionStore.FolderSnapshot.of(absolutePath, recursive, listed));
       }
+    });
+  }
+
+  private static void scanFolder(String absolutePath, boolean recursive, BooleanSupplier cancelled,
+                                 Consumer<List<Path>> onBatch) throws IOException {
+    if (recursive) {
+      DirectoryScanner.scanRecursively(Path.of(absolutePath), ThumbnailList::isSupportedImage, cancelled, onBatch);
+    } else {
+      DirectoryScanner.scan(Path.of(absolutePath), ThumbnailList::isSupportedImage, cancelled, onBatch);
     }
+  }
+
+  /**
+   * 启动时重新打开上次的文件夹，列表中已是从会话恢复的内容，不必等待扫描。
+   * 在后台扫描文件夹，与上次保存的快照对比，只应用变化的部分：新增的文件插入列表，修改的文件重新生成缩略图，
+   * 已删除的文件移出列表。之后与正常打开的文件夹一样监视文件变化。
+   * <p>
+   * 上次从列表中转移到其他标签页的图片仍在快照中，不会因为不在列表中而被当作新文件加回来；
+   * 列表中不属于这个文件夹（或不在扫描范围内）的图片不会被当作已删除。
+   *
+   * @param recursive 上次是否包含所有子文件夹，与快照不一致时快照不可用
+   */
+  public void reopenDirectory(String absolutePath, boolean recursive) {
+    if (folderWatcher != null) {
+      folderWatcher.close();
+      folderWatcher = null;
+    }
+    var byPath = thumbnailsByPath;
+    long progressId = Events.LoadingImagesEvent.nextSessionId();
+    MindPixMain.publish(new Events.LoadingImagesEvent.Started(progressId, absolutePath));
 
     Thread.startVirtualThread(() -> {
-      var loadingFolder = currentFolder;
-      MindPixMain.publish(new LoadingImagesEvent.Started(absolutePath));
       try {
+        var snapshot = SessionStore.getInstance().loadFolderSnapshot(absolutePath);
+        if (snapshot != null && snapshot.recursive() != recursive) {
+          // 上次打开方式不同，快照的范围不同，不能用来对比
+          snapshot = null;
+        }
+        if (!recursive) {
+          // 先开始监视，扫描期间发生的变化也不会漏掉
+          Platform.runLater(() -> {
+            if (thumbnailsByPath == byPath && folderWatcher == null) {
+              watchFolder(absolutePath);
+            }
+          });
+        }
 
-        var total = (int) this.getChildren().stream().filter(child -> child instanceof Thumbnail).count();
-        var counter = new AtomicInteger();
-        var errorAlerted = new Boolean[]{false};
-        var firstThumbnailSelected = new Boolean[]{false}; // 用于标记第一个缩略图是否已选中
+        var present = new ArrayList<Path>();
+        scanFolder(absolutePath, recursive, () -> thumbnailsByPath != byPath, present::addAll);
+        if (thumbnailsByPath != byPath) {
+          return;
+        }
+        var current = SessionStore.FolderSnapshot.of(absolutePath, recursive, present);
 
-        for (Node child : new ArrayList<>(this.getChildren())) {
-          if (!(loadingFolder.equals(currentFolder))) {
-            return;
-          }
-          if (child instanceof Thumbnail thumbnail) {
-            String imagePath = thumbnail.getImagePath();
-            try {
-              BufferedImage bufferedImage = readAsBufferedImage(imagePath);
-              BufferedImage thumbnailImage = ImageUtils.resize(bufferedImage, 180, 180);
-              Platform.runLater(() -> {
-                thumbnail.setImage(SwingFXUtils.toFXImage(thumbnailImage, null));
-
-                // 如果是第一个缩略图且尚未选中，则选中它
-                if (!firstThumbnailSelected[0] && getChildIndex(thumbnail) == 0) {
-                  changeActiveThumbnail(thumbnail);
-                  firstThumbnailSelected[0] = true;
-                }
-              });
-              MindPixMain.publish(new LoadingImagesEvent.Progress(counter.incrementAndGet(), total));
-            } catch (IOException e) {
-              if (!errorAlerted[0]) {
-                Platform.runLater(() -> {
-                  // show error alert
-                  Alert alert = new Alert(Alert.AlertType.ERROR);
-                  alert.setTitle("图片加载错误");
-                  alert.setHeaderText("图片加载错误，请检查图片文件是否正确。");
-                  alert.setContentText(e.toString());
-                  alert.showAndWait();
-                  errorAlerted[0] = true;
-                });
-              }
+        List<Path> changed = new ArrayList<>();
+        for (Path path : present) {
+          String imagePath = path.toString();
+          SessionStore.FileStamp previous = snapshot == null ? null : snapshot.files().get(imagePath);
+          if (previous == null) {
+            // 没有快照时只能以列表为准
+            if (snapshot != null || !byPath.containsKey(imagePath)) {
+              changed.add(path);
             }
+          } else if (!previous.equals(current.files().get(imagePath)) && byPath.containsKey(imagePath)) {
+            changed.add(path);
           }
         }
+        // 列表中可能有从其他文件夹转移来的图片，只有扫描范围内的才可能被删除
+        Path root = Path.of(absolutePath);
+        List<Path> removed = byPath.keySet().stream()
+          .filter(imagePath -> !current.files().containsKey(imagePath))
+          .map(Path::of)
+          .filter(path -> recursive ? path.startsWith(root) : root.equals(path.getParent()))
+          .toList();
+
+        Platform.runLater(() -> {
+          if (thumbnailsByPath == byPath) {
+            applyFolderChanges(absolutePath, new FolderWatcher.Changes(changed, removed, false));
+          }
+        });
+        SessionStore.getInstance().saveFolderSnapshot(current);
+        log.info("Reopened {}: {} changed, {} removed since last run", absolutePath, changed.size(), removed.size());
+      } catch (IOException e) {
+        log.error("Error scanning folder {}", absolutePath, e);
       } finally {
-        MindPixMain.publish(new LoadingImagesEvent.Finished());
+        MindPixMain.publish(new Events.LoadingImagesEvent.Finished(progressId));
       }
     });
   }
 
-  private BufferedImage readAsBufferedImage(String imagePath) throws IOException {
-    var image = ImageIO.read(new File(imagePath));
+  /**
+   * 恢复上次会话中的缩略图：立即显示占位图，调用 {@link #loadRestored()} 之后才加载缩略图，
+   * 未显示过的标签页不占用加载线程
+   *
+   * @param imagePaths  图片路径，按显示顺序排列
+   * @param activeIndex 选中图片的位置，-1 表示没有
+   */
+  public void restore(List<String> imagePaths, int activeIndex) {
+    if (loadingSession != null) {
+      loadingSession.cancel();
+    }
+    loadedThumbnails.clear();
+    discoveredThumbnails.clear();
+    pendingDiscovered.clear();
+    releaseAllCells();
+    var byPath = new ConcurrentHashMap<String, Thumbnail>();
+    var restored = new ArrayList<Thumbnail>(imagePaths.size());
+    for (String imagePath : imagePaths) {
+      Thumbnail thumbnail = new Thumbnail(imagePath);
+      if (byPath.putIfAbsent(imagePath, thumbnail) == null) {
+        restored.add(thumbnail);
+      }
+    }
+    thumbnailsByPath = byPath;
+    thumbnails.setAll(restored);
+    if (activeIndex >= 0 && activeIndex < restored.size()) {
+      Thumbnail active = restored.get(activeIndex);
+      thumbnails.setActive(active);
+      active.setActive(true);
+    }
+    loadingSession = null;
+    restorePending = !restored.isEmpty();
+    prioritizedFrom = -1;
+    prioritizedTo = -1;
+    requestLayout();
+  }
+
+  /**
+   * 开始加载恢复的缩略图，标签页第一次显示时调用；没有待加载的缩略图时什么也不做
+   */
+  public void loadRestored() {
+    if (!restorePending) {
+      return;
+    }
+    restorePending = false;
+    // 恢复的图片可能已被移走或删除，失败时只记录日志
+    loadingSession = ThumbnailLoader.getInstance().load(getImagePaths(), newLoadingCallback(thumbnailsByPath, false));
+    prioritizedFrom = -1;
+    prioritizedTo = -1;
+    requestLayout();
+  }
+
+  /**
+   * 在后台解码屏幕上的缩略图，解码前已经滚出屏幕的放弃
+   */
+  private void inflate(Thumbnail thumbnail) {
+    ThumbnailLoader.getInstance().inflate(thumbnail.getImagePath(), thumbnail::isDisplayed,
+      image -> loadedThumbnails.submit(new LoadedThumbnail(thumbnail, image)));
+  }
+
+  private void applyLoadedThumbnail(LoadedThumbnail loaded) {
+    Thumbnail thumbnail = loaded.thumbnail();
+    Image image = loaded.image();
+    thumbnail.setLoaded(true);
     if (image == null) {
-      throw new IOException("无法读取图片文件: " + imagePath);
+      // 加载时不在屏幕上，之后才滚动进来
+      if (thumbnail.isDisplayed()) {
+        inflate(thumbnail);
+      }
+    } else if (thumbnail.isDisplayed()) {
+      thumbnail.showImage(image);
+    } else {
+      PixelBufferPool.getInstance().recycle(image);
     }
-    return image;
   }
 
-  public void removeThumbnail(Thumbnail thumbnail) {
-    Platform.runLater(() -> {
-      // 确保重置被移除的缩略图状态
-      thumbnail.resetState();
+  private void collectDiscovered(DiscoveredThumbnails discovered) {
+    if (loadingSession == discovered.session()) {
+      pendingDiscovered.addAll(discovered.thumbnails());
+    }
+  }
+
+  private void mergeDiscovered() {
+    if (pendingDiscovered.isEmpty()) {
+      return;
+    }
+    mergeThumbnails(pendingDiscovered);
+    pendingDiscovered.clear();
+    // 后来的批次可能排在前面，自动选中的是合并后排在最前的图片
+    if (thumbnails.getActive() == null && !thumbnails.getFirst().isLoaded()) {
+      DecodeService.getInstance().expectPreview(thumbnails.getFirst().getImagePath());
+    }
+  }
+
+  /**
+   * 尚未选中任何缩略图时，第一个缩略图加载完成后选中它
+   */
+  private void selectFirstLoaded() {
+    if (thumbnails.getActive() == null && !thumbnails.isEmpty() && thumbnails.getFirst().isLoaded()) {
+      changeActiveThumbnail(thumbnails.getFirst());
+    }
+  }
+
+  /**
+   * @param byPath         当前文件夹中的图片
+   * @param alertOnFailure 加载失败时是否弹窗提示，文件夹监视发现的文件可能还没写完，失败时只记录日志
+   */
+  private ThumbnailCallback newLoadingCallback(Map<String, Thumbnail> byPath, boolean alertOnFailure) {
+    var errorAlerted = new AtomicBoolean(false);
+    return new ThumbnailCallback() {
+      @Override
+      public void onLoaded(String imagePath) {
+        Thumbnail thumbnail = byPath.get(imagePath);
+        if (thumbnail == null) {
+          return;
+        }
+        // 屏幕上的缩略图趁在工作线程中直接解码，其余的只记下已加载
+        Image image = thumbnail.isDisplayed() ? ThumbnailLoader.getInstance().inflate(imagePath) : null;
+        loadedThumbnails.submit(new LoadedThumbnail(thumbnail, image));
+      }
+
+      @Override
+      public void onFailed(String imagePath, IOException e) {
+        if (!alertOnFailure) {
+          log.debug("Error loading changed image {}: {}", imagePath, e.toString());
+        } else if (errorAlerted.compareAndSet(false, true)) {
+          Platform.runLater(() -> {
+            // show error alert
+            Alert alert = new Alert(Alert.AlertType.ERROR);
+            alert.setTitle("图片加载错误");
+            alert.setHeaderText("图片加载错误，请检查图片文件是否正确。");
+            alert.setContentText(e.toString());
+            alert.showAndWait();
+          });
+        }
+      }
+    };
+  }
 
-      getChildren().remove(thumbnail);
-      if (thumbnail == currentActiveThumbnail) {
-        currentActiveThumbnail = null;
-        // 选择新的活动缩略图
-        if (!getChildren().isEmpty()) {
-          Node firstNode = getChildren().get(0);
-          if (firstNode instanceof Thumbnail) {
-            ((Thumbnail) firstNode).setActive(true);
-            currentActiveThumbnail = (Thumbnail) firstNode;
+  //----------------------------------------------------
+  // 文件夹监视
+
+  private void watchFolder(String absolutePath) {
+    try {
+      var byPath = thumbnailsByPath;
+      folderWatcher = FolderWatcher.watch(Path.of(absolutePath), ThumbnailList::isSupportedImage,
+        changes -> Platform.runLater(() -> {
+          // 已经打开了别的文件夹
+          if (thumbnailsByPath == byPath) {
+            applyFolderChanges(absolutePath, changes);
           }
+        }));
+    } catch (IOException e) {
+      log.warn("Unable to watch folder {}", absolutePath, e);
+    }
+  }
+
+  /**
+   * 把一批文件变化应用到列表上：新文件按顺序插入，删除的文件移除，修改的文件重新生成缩略图。
+   * 整批变化只触发一次布局。
+   * <p>
+   * 已经转移到其他标签页的图片不在本列表中，它们的删除和修改通过事件交给其他标签页处理，
+   * 其他标签页中也没有的才是新文件。
+   */
+  private void applyFolderChanges(String folder, FolderWatcher.Changes changes) {
+    if (changes.overflow()) {
+      rescanFolder(folder);
+      return;
+    }
+
+    var removed = new HashSet<Thumbnail>();
+    var removedElsewhere = new ArrayList<String>();
+    for (Path path : changes.removed()) {
+      Thumbnail thumbnail = thumbnailsByPath.get(path.toString());
+      if (thumbnail != null) {
+        removed.add(thumbnail);
+      } else {
+        removedElsewhere.add(path.toString());
+      }
+    }
+
+    var modified = new ArrayList<String>();
+    var notHere = new ArrayList<String>();
+    for (Path path : changes.changed()) {
+      String imagePath = path.toString();
+      // 文件内容变了，或者删除后又创建了同名文件，丢弃内存中的旧缩略图和预览图；磁盘缓存会根据修改时间自动失效
+      ImageCache.getInstance().invalidate(imagePath);
+      ThumbnailStore.getInstance().invalidate(imagePath);
+      PreviewLoader.getInstance().forgetSourceSize(imagePath);
+      if (thumbnailsByPath.containsKey(imagePath)) {
+        modified.add(imagePath);
+      } else {
+        notHere.add(imagePath);
+      }
+    }
+
+    if (!removed.isEmpty()) {
+      removeThumbnails(removed);
+    }
+    if (!modified.isEmpty()) {
+      ThumbnailLoader.getInstance().refresh(folder, modified, newLoadingCallback(thumbnailsByPath, false));
+    }
+    if (!removedElsewhere.isEmpty()) {
+      MindPixMain.publish(new Events.FolderChangeEvent.ImagesRemoved(removedElsewhere));
+    }
+    if (!notHere.isEmpty()) {
+      var byPath = thumbnailsByPath;
+      MindPixMain.publish(new Events.FolderChangeEvent.ImagesChanged(notHere, newImages -> {
+        // 已经打开了别的文件夹
+        if (thumbnailsByPath == byPath) {
+          addFolderImages(folder, newImages);
         }
+      }));
+    }
+    log.debug("Applied folder changes in {}: {} modified, {} removed, {} not in this list",
+      folder, modified.size(), removed.size(), removedElsewhere.size() + notHere.size());
+  }
+
+  /**
+   * 把文件夹中新出现的图片按顺序插入列表并加载缩略图，已在列表中的被忽略
+   */
+  private void addFolderImages(String folder, List<String> imagePaths) {
+    var added = new ArrayList<Thumbnail>();
+    for (String imagePath : imagePaths) {
+      Thumbnail thumbnail = new Thumbnail(imagePath);
+      if (thumbnailsByPath.putIfAbsent(imagePath, thumbnail) == null) {
+        added.add(thumbnail);
+      }
+    }
+    if (added.isEmpty()) {
+      return;
+    }
+    mergeThumbnails(added);
+    ThumbnailLoader.getInstance().refresh(folder, added.stream().map(Thumbnail::getImagePath).toList(),
+      newLoadingCallback(thumbnailsByPath, false));
+  }
+
+  /**
+   * 重新加载列表中这些图片的缩略图，例如图片转移到本列表之后，在所在的文件夹中被修改
+   *
+   * @return 列表中有的图片，其余的被忽略
+   */
+  public List<String> reloadThumbnails(Collection<String> imagePaths) {
+    List<String> held = imagePaths.stream().filter(thumbnailsByPath::containsKey).toList();
+    if (!held.isEmpty()) {
+      ThumbnailLoader.getInstance().load(held, newLoadingCallback(thumbnailsByPath, false));
+    }
+    return held;
+  }
+
+  /**
+   * 文件夹监视丢失了部分事件，重新扫描文件夹并与当前列表对比
+   */
+  private void rescanFolder(String folder) {
+    var byPath = thumbnailsByPath;
+    Thread.startVirtualThread(() -> {
+      var present = new HashSet<Path>();
+      try {
+        DirectoryScanner.scan(Path.of(folder), ThumbnailList::isSupportedImage, () -> false, present::addAll);
+      } catch (IOException e) {
+        log.warn("Error rescanning folder {}", folder, e);
+        return;
       }
+      List<Path> changed = present.stream().filter(path -> !byPath.containsKey(path.toString())).toList();
+      List<Path> removed = byPath.keySet().stream()
+        .map(Path::of)
+        .filter(path -> !present.contains(path))
+        .toList();
+      Platform.runLater(() -> {
+        if (thumbnailsByPath == byPath) {
+          applyFolderChanges(folder, new FolderWatcher.Changes(changed, removed, false));
+        }
+      });
     });
   }
 
+  /**
+   * 一次移除多个缩略图，只修改一次集合、布局一次。当前选中的被移除时选中原位置上的下一个。
+   * 必须在 JavaFX 线程中调用。
+   *
+   * @return 实际移除的缩略图，按原来在列表中的顺序排列
+   */
+  public List<Thumbnail> removeThumbnails(Collection<Thumbnail> toRemove) {
+    Set<Thumbnail> removed = Collections.newSetFromMap(new IdentityHashMap<>());
+    for (Thumbnail thumbnail : toRemove) {
+      if (thumbnails.contains(thumbnail)) {
+        removed.add(thumbnail);
+      }
+    }
+    if (removed.isEmpty()) {
+      return List.of();
+    }
+    List<Thumbnail> ordered = removed.stream().sorted(Comparator.comparingInt(thumbnails::indexOf)).toList();
+
+    Thumbnail active = thumbnails.getActive();
+    int activeIndex = active != null && removed.contains(active) ? thumbnails.indexOf(active) : -1;
+    for (Thumbnail thumbnail : ordered) {
+      thumbnail.resetState();
+      releaseCellOf(thumbnail);
+      thumbnailsByPath.remove(thumbnail.getImagePath(), thumbnail);
+    }
+    thumbnails.removeAll(removed);
+
+    if (activeIndex >= 0 && !thumbnails.isEmpty()) {
+      Thumbnail next = thumbnails.get(Math.min(activeIndex, thumbnails.size() - 1));
+      thumbnails.setActive(next);
+      next.setActive(true);
+    }
+    prioritizedFrom = -1;
+    prioritizedTo = -1;
+    requestLayout();
+    return ordered;
+  }
+
+  /**
+   * 按图片路径移除缩略图，例如图片被移动到别的文件夹之后
+   */
+  public List<Thumbnail> removeThumbnailsByPath(Collection<String> imagePaths) {
+    return removeThumbnails(imagePaths.stream().map(thumbnailsByPath::get).filter(Objects::nonNull).toList());
+  }
+
+  /**
+   * 一次添加多个缩略图到列表末尾，不改变选中的缩略图，必须在 JavaFX 线程中调用
+   */
+  public void addThumbnails(List<Thumbnail> added) {
+    if (added.isEmpty()) {
+      return;
+    }
+    thumbnails.addAll(added);
+    added.forEach(thumbnail -> thumbnailsByPath.putIfAbsent(thumbnail.getImagePath(), thumbnail));
+    requestLayout();
+  }
+
+  private static boolean isSupportedImage(String fileName) {
+    return SUPPORTED_IMAGE_EXTENSIONS.stream().anyMatch(fileName::endsWith);
+  }
+
+  /**
+   * 把新发现的缩略图按路径合并到列表中，列表始终保持有序，最终顺序与扫描顺序无关
+   */
+  private void mergeThumbnails(List<Thumbnail> discovered) {
+    thumbnails.merge(discovered, PATH_ORDER);
+
+    // 同一位置上的图片变了，需要重新设置加载优先级
+    prioritizedFrom = -1;
+    prioritizedTo = -1;
+    requestLayout();
+  }
+
+  /**
+   * 移除缩略图，必须在 JavaFX 线程中调用
+   */
+  public void removeThumbnail(Thumbnail thumbnail) {
+    // 确保重置被移除的缩略图状态
+    thumbnail.resetState();
+
+    boolean wasActive = thumbnail == thumbnails.getActive();
+    thumbnails.remove(thumbnail);
+    thumbnailsByPath.remove(thumbnail.getImagePath(), thumbnail);
+    releaseCellOf(thumbnail);
+    if (wasActive && !thumbnails.isEmpty()) {
+      // 选择新的活动缩略图
+      Thumbnail first = thumbnails.getFirst();
+      thumbnails.setActive(first);
+      first.setActive(true);
+    }
+    requestLayout();
+  }
+
   public void addThumbnail(Thumbnail thumbnail) {
     addThumbnail(thumbnail, false);
   }
 
   /**
-   * 添加缩略图到列表
+   * 添加缩略图到列表，必须在 JavaFX 线程中调用
    * @param thumbnail 要添加的缩略图
    * @param autoSelect 是否自动选中该缩略图
    */
   public void addThumbnail(Thumbnail thumbnail, boolean autoSelect) {
-    Platform.runLater(() -> {
-      getChildren().add(thumbnail);
-      if (autoSelect && currentActiveThumbnail == null) {
-        // 只有在当前没有选中任何缩略图时才自动选中
-        thumbnail.setActive(true);
-        currentActiveThumbnail = thumbnail;
-      }
-    });
+    thumbnails.add(thumbnail);
+    thumbnailsByPath.putIfAbsent(thumbnail.getImagePath(), thumbnail);
+    requestLayout();
+    if (autoSelect && thumbnails.getActive() == null) {
+      // 只有在当前没有选中任何缩略图时才自动选中
+      thumbnails.setActive(thumbnail);
+      thumbnail.setActive(true);
+    }
   }
 }
@@ -0,0 +1,314 @@
+package com.hyd.mindpix.components;
+
+import com.hyd.mindpix.loader.TileLoader;
+import com.hyd.mindpix.utils.PixelBufferPool;
+import com.hyd.mindpix.utils.PixelUtils;
+import javafx.application.Platform;
+import javafx.geometry.Rectangle2D;
+import javafx.scene.image.Image;
+import javafx.scene.image.ImageView;
+import javafx.scene.layout.Pane;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * 分块显示大图：只解码视口内及其周围一圈的图块，图块缓存在有上限的池中，
+ * 因此占用的内存只取决于视口大小，与图片尺寸无关。
+ * <p>
+ * 所有公开方法都在 JavaFX 线程中调用，图块在 {@link TileLoader} 的线程中解码和切分。
+ * 图块的像素存放在 {@link PixelBufferPool} 的缓冲中，移出图块池时归还，平移时不必反复分配新的图块内存。
+ */
+public class TiledImageView extends Pane {
+
+  /**
+   * 图块在原图中的边长，是各降采样步长的整数倍
+   */
+  public static final int TILE_SIZE = 512;
+
+  /**
+   * 最大降采样步长，缩得更小时不再使用分块显示
+   */
+  public static final int MAX_SUBSAMPLING = 8;
+
+  /**
+   * 视口之外额外加载的图块圈数，平移时邻近的图块已经就绪
+   */
+  private static final int MARGIN_TILES = 1;
+
+  /**
+   * 图块池至少容纳的图块数
+   */
+  private static final int MIN_POOL_TILES = 32;
+
+  private record TileKey(int column, int row, int subsampling) {
+  }
+
+  private final LinkedHashMap<TileKey, Image> tilePool = new LinkedHashMap<>(64, 0.75f, true);
+
+  private final Map<TileKey, ImageView> tileViews = new HashMap<>();
+
+  /**
+   * 已提交解码、尚未返回的图块
+   */
+  private final Set<TileKey> requested = new HashSet<>();
+
+  private volatile String imagePath;
+
+  private int sourceWidth;
+
+  private int sourceHeight;
+
+  private double scale = 1;
+
+  private volatile int subsampling = 1;
+
+  /**
+   * 视口在本组件坐标系中的区域
+   */
+  private Rectangle2D visibleRect;
+
+  /**
+   * 当前需要的图块范围（以图块为单位），解码线程据此判断正在解码的区域是否仍然需要
+   */
+  private volatile Rectangle wantedTiles = new Rectangle();
+
+  private int poolCapacity = MIN_POOL_TILES;
+
+  public TiledImageView() {
+    setManaged(false);
+    setVisible(false);
+  }
+
+  /**
+   * 设置要显示的图片，为 null 时释放所有图块
+   */
+  public void setSource(String imagePath, int sourceWidth, int sourceHeight) {
+    if (imagePath != null && imagePath.equals(this.imagePath)
+        && sourceWidth == this.sourceWidth && sourceHeight == this.sourceHeight) {
+      return;
+    }
+    if (this.imagePath != null) {
+      TileLoader.getInstance().release(this.imagePath);
+    }
+    this.imagePath = imagePath;
+    this.sourceWidth = sourceWidth;
+    this.sourceHeight = sourceHeight;
+    clearTiles();
+    updateSize();
+  }
+
+  /**
+   * 设置显示比例
+   *
+   * @param scale       显示尺寸与原图尺寸之比
+   * @param subsampling 解码图块时的降采样步长
+   */
+  public void setScale(double scale, int subsampling) {
+    if (scale == this.scale && subsampling == this.subsampling) {
+      return;
+    }
+    this.scale = scale;
+    if (subsampling != this.subsampling) {
+      this.subsampling = subsampling;
+      clearTiles();
+    }
+    updateSize();
+  }
+
+  /**
+   * 视口区域发生变化，加载新露出的图块
+   */
+  public void setVisibleRect(Rectangle2D visibleRect) {
+    this.visibleRect = visibleRect;
+    updateTiles();
+  }
+
+  private void clearTiles() {
+    getChildren().clear();
+    tileViews.clear();
+    requested.clear();
+    tilePool.values().forEach(PixelBufferPool.getInstance()::recycle);
+    tilePool.clear();
+  }
+
+  private void updateSize() {
+    double width = sourceWidth * scale;
+    double height = sourceHeight * scale;
+    setMinSize(width, height);
+    setPrefSize(width, height);
+    setMaxSize(width, height);
+    tileViews.forEach(this::placeTile);
+    updateTiles();
+  }
+
+  private int columnCount() {
+    return (sourceWidth + TILE_SIZE - 1) / TILE_SIZE;
+  }
+
+  private int rowCount() {
+    return (sourceHeight + TILE_SIZE - 1) / TILE_SIZE;
+  }
+
+  private void updateTiles() {
+    if (imagePath == null || visibleRect == null || sourceWidth <= 0 || sourceHeight <= 0 || scale <= 0) {
+      return;
+    }
+    double tileDisplaySize = TILE_SIZE * scale;
+    int firstColumn = Math.max(0, (int) Math.floor(visibleRect.getMinX() / tileDisplaySize) - MARGIN_TILES);
+    int lastColumn = Math.min(columnCount() - 1, (int) Math.floor(visibleRect.getMaxX() / tileDisplaySize) + MARGIN_TILES);
+    int firstRow = Math.max(0, (int) Math.floor(visibleRect.getMinY() / tileDisplaySize) - MARGIN_TILES);
+    int lastRow = Math.min(rowCount() - 1, (int) Math.floor(visibleRect.getMaxY() / tileDisplaySize) + MARGIN_TILES);
+    if (firstColumn > lastColumn || firstRow > lastRow) {
+      return;
+    }
+
+    // 池中至少要能放下视口及其周围一圈的图块，再留出一倍用于来回平移
+    poolCapacity = Math.max(MIN_POOL_TILES, (lastColumn - firstColumn + 1) * (lastRow - firstRow + 1) * 2);
+    wantedTiles = new Rectangle(firstColumn, firstRow, lastColumn - firstColumn + 1, lastRow - firstRow + 1);
+
+    tileViews.entrySet().removeIf(entry -> {
+      TileKey key = entry.getKey();
+      boolean outside = key.column() < firstColumn || key.column() > lastColumn
+                        || key.row() < firstRow || key.row() > lastRow;
+      if (outside) {
+        getChildren().remove(entry.getValue());
+      }
+      return outside;
+    });
+
+    List<TileKey> missing = new ArrayList<>();
+    for (int row = firstRow; row <= lastRow; row++) {
+      for (int column = firstColumn; column <= lastColumn; column++) {
+        TileKey key = new TileKey(column, row, subsampling);
+        Image tile = tilePool.get(key);
+        if (tile != null) {
+          showTile(key, tile);
+        } else if (!requested.contains(key)) {
+          missing.add(key);
+        }
+      }
+    }
+    if (!missing.isEmpty()) {
+      requestTiles(missing);
+    }
+  }
+
+  private void showTile(TileKey key, Image tile) {
+    ImageView view = tileViews.get(key);
+    if (view == null) {
+      view = new ImageView(tile);
+      view.setSmooth(true);
+      tileViews.put(key, view);
+      getChildren().add(view);
+    }
+    placeTile(key, view);
+  }
+
+  private void placeTile(TileKey key, ImageView view) {
+    int x = key.column() * TILE_SIZE;
+    int y = key.row() * TILE_SIZE;
+    // 相邻图块的边界取整到同一位置，避免出现缝隙
+    double left = Math.floor(x * scale);
+    double top = Math.floor(y * scale);
+    double right = Math.ceil(Math.min(x + TILE_SIZE, sourceWidth) * scale);
+    double bottom = Math.ceil(Math.min(y + TILE_SIZE, sourceHeight) * scale);
+    view.relocate(left, top);
+    view.setFitWidth(right - left);
+    view.setFitHeight(bottom - top);
+  }
+
+  /**
+   * 把缺少的图块合并成一个区域解码，再切分成图块。解码器按行扫描，一次解码整个区域比逐块解码快得多。
+   */
+  private void requestTiles(List<TileKey> missing) {
+    int firstColumn = missing.stream().mapToInt(TileKey::column).min().orElseThrow();
+    int lastColumn = missing.stream().mapToInt(TileKey::column).max().orElseThrow();
+    int firstRow = missing.stream().mapToInt(TileKey::row).min().orElseThrow();
+    int lastRow = missing.stream().mapToInt(TileKey::row).max().orElseThrow();
+
+    int x = firstColumn * TILE_SIZE;
+    int y = firstRow * TILE_SIZE;
+    Rectangle region = new Rectangle(x, y,
+      Math.min((lastColumn + 1) * TILE_SIZE, sourceWidth) - x,
+      Math.min((lastRow + 1) * TILE_SIZE, sourceHeight) - y);
+
+    requested.addAll(missing);
+    String path = imagePath;
+    int step = subsampling;
+    Rectangle tileBox = new Rectangle(firstColumn, firstRow, lastColumn - firstColumn + 1, lastRow - firstRow + 1);
+
+    // 区域已经完全移出视口时放弃解码，让位给新露出的图块
+    TileLoader.getInstance().load(path, region, step, () -> isStale(path, step, tileBox), regionImage -> {
+      Map<TileKey, Image> tiles = new HashMap<>();
+      boolean failed = regionImage == null && !isStale(path, step, tileBox);
+      if (regionImage != null) {
+        for (TileKey key : missing) {
+          Image tile = cropTile(regionImage, key, region);
+          if (tile != null) {
+            tiles.put(key, tile);
+          }
+        }
+      }
+      Platform.runLater(() -> onTilesLoaded(path, step, missing, tiles, failed));
+    });
+  }
+
+  /**
+   * 在解码线程中调用
+   */
+  private boolean isStale(String path, int step, Rectangle tileBox) {
+    return step != subsampling || !path.equals(imagePath) || !wantedTiles.intersects(tileBox);
+  }
+
+  private static Image cropTile(BufferedImage regionImage, TileKey key, Rectangle region) {
+    int step = key.subsampling();
+    int x = (key.column() * TILE_SIZE - region.x) / step;
+    int y = (key.row() * TILE_SIZE - region.y) / step;
+    if (x >= regionImage.getWidth() || y >= regionImage.getHeight()) {
+      return null;
+    }
+    int width = Math.min((TILE_SIZE + step - 1) / step, regionImage.getWidth() - x);
+    int height = Math.min((TILE_SIZE + step - 1) / step, regionImage.getHeight() - y);
+    return PixelUtils.toFXImage(regionImage, x, y, width, height);
+  }
+
+  private void onTilesLoaded(String path, int step, List<TileKey> keys, Map<TileKey, Image> tiles, boolean failed) {
+    if (!path.equals(imagePath) || step != subsampling) {
+      tiles.values().forEach(PixelBufferPool.getInstance()::recycle);
+      return;
+    }
+    if (failed) {
+      // 解码失败的图块留在 requested 中，不再反复重试，底下仍显示低分辨率的预览图
+      return;
+    }
+    keys.forEach(requested::remove);
+    tilePool.putAll(tiles);
+    evict(tilePool, poolCapacity, tileViews::containsKey, PixelBufferPool.getInstance()::recycle);
+    updateTiles();
+  }
+
+  /**
+   * 从最久未用的条目开始移出池，直到不超过容量，正在使用的条目保留。
+   * 池按访问排序，遍历时不能调用 get()，否则会改变顺序并使迭代器失效。
+   */
+  static <K, V> void evict(LinkedHashMap<K, V> pool, int capacity, Predicate<K> inUse, Consumer<V> onEvicted) {
+    var iterator = pool.entrySet().iterator();
+    while (pool.size() > capacity && iterator.hasNext()) {
+      Map.Entry<K, V> eldest = iterator.next();
+      if (!inUse.test(eldest.getKey())) {
+        onEvicted.accept(eldest.getValue());
+        iterator.remove();
+      }
+    }
+  }
+}
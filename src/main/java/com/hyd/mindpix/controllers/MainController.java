@@ -10,6 +10,12 @@ import com.hyd.mindpix.components.Thumbnail;
 import com.hyd.mindpix.components.ThumbnailList;
 import com.hyd.mindpix.enums.ImageDisplayMode;
 import com.hyd.mindpix.enums.ScaleRatio;
+import com.hyd.mindpix.loader.FileCommitter;
+import com.hyd.mindpix.loader.SessionStore;
+import com.hyd.mindpix.loader.ThumbnailLoader;
+import javafx.animation.Animation;
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
 import javafx.application.Platform;
 import javafx.collections.FXCollections;
 import javafx.scene.control.*;
@@ -17,15 +23,18 @@ import javafx.scene.image.Image;
 import javafx.scene.layout.HBox;
 import javafx.stage.DirectoryChooser;
 import javafx.stage.Stage;
+import javafx.util.Duration;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Component;
 
 import java.io.File;
-import java.io.IOException;
-import java.io.InputStream;
-import java.nio.file.Files;
-import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 @Component
 @Slf4j
@@ -50,6 +59,20 @@ public class MainController {
 
   public TabPane collectionsTabPane;
 
+  /**
+   * 各标签页上次保存时的版本，见 {@link #saveSession(boolean)}
+   */
+  private final Map<ImageCollectionTab, Long> savedVersions = new IdentityHashMap<>();
+
+  private List<SessionStore.TabHeader> savedHeaders = List.of();
+
+  private int savedSelectedIndex = -1;
+
+  /**
+   * 进度条显示的过程的编号，见 {@link Events.LoadingImagesEvent}
+   */
+  private long progressSessionId = 0;
+
   public void initialize() {
     // Initialize scale combo box
     scaleComboBox.setItems(FXCollections.observableArrayList(ScaleRatio.values()));
@@ -67,22 +90,9 @@ public class MainController {
     setupDisplayModeBinding();
 
     // Set up image change listener
-    MindPixApplication.CURRENT_IMAGE.addListener((_, _, imagePath) -> {
-      if (imagePath != null) {
-        // 用户点击缩略图查看图片，此时图片文件可能已经不在了
-        Path imageFile = Path.of(imagePath);
-        if (!Files.exists(imageFile)) {
-          return;
-        }
-        try (InputStream fis = Files.newInputStream(imageFile)) {
-          imagePreview.setImage(new Image(fis));
-        } catch (IOException e) {
-          throw new RuntimeException(e);
-        }
-      } else {
-        imagePreview.setImage(null);
-      }
-    });
+    // 预览图在后台解码，切换图片时先放大显示缩略图，只显示最新请求的结果
+    MindPixApplication.CURRENT_IMAGE.addListener((_, _, imagePath) ->
+      imagePreview.showImage(imagePath, findThumbnailImage(imagePath)));
 
     ImageCollectionTab defaultCollection = new ImageCollectionTab(MindPixMain.DEFAULT_COLLECTION_NAME);
     this.collectionsTabPane.getTabs().add(defaultCollection);
@@ -94,10 +104,159 @@ public class MainController {
     collectionsTabPane.getSelectionModel().selectedItemProperty().addListener((_, _, newTab) -> {
       if (newTab instanceof ImageCollectionTab imageCollectionTab) {
         MindPixApplication.CURRENT_TAB.set(imageCollectionTab);
+        // 恢复的标签页第一次显示时才开始加载缩略图
+        imageCollectionTab.getThumbnailList().loadRestored();
       }
     });
     // 初始化CURRENT_TAB为默认Tab
     MindPixApplication.CURRENT_TAB.set(defaultCollection);
+
+    boolean defaultRestored = restoreSession(defaultCollection);
+    reopenLastFolder(defaultCollection, defaultRestored);
+
+    // 每秒检查一次标签页是否有变化，有变化的标签页在后台保存
+    Timeline sessionAutosave = new Timeline(new KeyFrame(Duration.seconds(1), _ -> saveSession(false)));
+    sessionAutosave.setCycleCount(Animation.INDEFINITE);
+    sessionAutosave.play();
+
+    // 窗口显示后再询问如何处理上次中断的提交
+    Platform.runLater(this::handleInterruptedCommits);
+  }
+
+  //----------------------------------------------------
+  // 会话
+
+  /**
+   * 恢复上次退出时的标签页。只创建占位的缩略图，不读取任何图片，选中的标签页显示后才开始加载缩略图。
+   *
+   * @return 默认集合是否从会话中恢复
+   */
+  private boolean restoreSession(ImageCollectionTab defaultCollection) {
+    long start = System.nanoTime();
+    SessionStore.Session session = SessionStore.getInstance().load();
+    if (session == null) {
+      return false;
+    }
+
+    boolean defaultRestored = false;
+    int images = 0;
+    for (SessionStore.TabState state : session.tabs()) {
+      ImageCollectionTab tab;
+      if (MindPixMain.DEFAULT_COLLECTION_NAME.equals(state.title())) {
+        tab = defaultCollection;
+        defaultRestored = true;
+      } else if (findTabByTitle(state.title()) == null) {
+        tab = new ImageCollectionTab(state.title());
+        collectionsTabPane.getTabs().add(tab);
+      } else {
+        continue;
+      }
+      tab.getThumbnailList().restore(state.imagePaths(), state.activeIndex());
+      savedVersions.put(tab, tab.getThumbnailList().getThumbnails().getVersion());
+      images += state.imagePaths().size();
+    }
+
+    var tabs = collectionsTabPane.getTabs();
+    int selectedIndex = session.selectedIndex() >= 0 && session.selectedIndex() < tabs.size() ? session.selectedIndex() : 0;
+    collectionsTabPane.getSelectionModel().select(selectedIndex);
+    savedHeaders = getCollectionTabs().stream().map(MainController::headerOf).toList();
+    savedSelectedIndex = selectedIndex;
+
+    // 每个标签页恢复选中的图片时都会切换预览，最后以选中的标签页为准
+    ImageCollectionTab selectedTab = getCurrentCollectionTab();
+    if (selectedTab != null) {
+      Thumbnail active = selectedTab.getThumbnailList().getCurrentActiveThumbnail();
+      if (active != null) {
+        MindPixApplication.CURRENT_IMAGE.set(active.getImagePath());
+      }
+      selectedTab.getThumbnailList().loadRestored();
+    }
+    log.info("Restored {} tabs with {} images in {} ms",
+      session.tabs().size(), images, (System.nanoTime() - start) / 1_000_000);
+    return defaultRestored;
+  }
+
+  /**
+   * 启动时重新打开上次的文件夹。默认集合已从会话中恢复时直接显示恢复的内容，在后台与文件夹对比；
+   * 否则正常打开文件夹。
+   */
+  private void reopenLastFolder(ImageCollectionTab defaultCollection, boolean defaultRestored) {
+    MindPixConfig config = MindPixConfig.getInstance();
+    String folder = config.getLastOpenedDir();
+    if (!config.isWarmStart() || folder == null || !new File(folder).isDirectory()) {
+      return;
+    }
+    boolean recursive = config.isLastOpenedRecursive();
+    if (defaultRestored) {
+      defaultCollection.getThumbnailList().reopenDirectory(folder, recursive);
+    } else {
+      defaultCollection.getThumbnailList().openDirectory(folder, recursive);
+    }
+  }
+
+  /**
+   * 保存内容有变化的标签页，以及标签页的顺序、选中的标签页和各标签页中选中的图片。
+   * 只是选中的图片变了时只重写索引文件。
+   *
+   * @param waitForWrite 是否等待写入完成，退出时使用
+   */
+  public void saveSession(boolean waitForWrite) {
+    List<ImageCollectionTab> tabs = getCollectionTabs();
+    List<SessionStore.TabHeader> headers = tabs.stream().map(MainController::headerOf).toList();
+    int selectedIndex = collectionsTabPane.getSelectionModel().getSelectedIndex();
+
+    List<SessionStore.TabContent> changed = new ArrayList<>();
+    for (ImageCollectionTab tab : tabs) {
+      ThumbnailList thumbnailList = tab.getThumbnailList();
+      long version = thumbnailList.getThumbnails().getVersion();
+      Long saved = savedVersions.get(tab);
+      if (saved == null || saved != version) {
+        changed.add(new SessionStore.TabContent(tab.getTitle(), thumbnailList.getImagePaths()));
+        savedVersions.put(tab, version);
+      }
+    }
+    savedVersions.keySet().retainAll(tabs);
+    if (changed.isEmpty() && headers.equals(savedHeaders) && selectedIndex == savedSelectedIndex) {
+      return;
+    }
+    savedHeaders = headers;
+    savedSelectedIndex = selectedIndex;
+
+    if (waitForWrite) {
+      SessionStore.getInstance().save(headers, selectedIndex, changed);
+    } else {
+      SessionStore.getInstance().saveAsync(headers, selectedIndex, changed);
+    }
+  }
+
+  private static SessionStore.TabHeader headerOf(ImageCollectionTab tab) {
+    return new SessionStore.TabHeader(tab.getTitle(), tab.getThumbnailList().getThumbnails().getActiveIndex());
+  }
+
+  /**
+   * 上次退出时有提交到文件夹的操作没有完成，让用户选择继续还是撤销
+   */
+  private void handleInterruptedCommits() {
+    FileCommitter committer = FileCommitter.getInstance();
+    for (var interrupted : committer.findInterrupted()) {
+      Alert alert = new Alert(Alert.AlertType.CONFIRMATION);
+      alert.setTitle("未完成的提交");
+      alert.setHeaderText(String.format("上次%s图片到 %s 时中断，共 %d 张，已完成约 %d 张。",
+        interrupted.mode().getDisplayName(), interrupted.targetDir(), interrupted.total(), interrupted.done()));
+      alert.setContentText("继续完成这次提交，还是撤销已完成的部分？");
+      ButtonType resume = new ButtonType("继续");
+      ButtonType rollback = new ButtonType("撤销");
+      ButtonType later = new ButtonType("下次再说", ButtonBar.ButtonData.CANCEL_CLOSE);
+      alert.getButtonTypes().setAll(resume, rollback, later);
+      // 启动时标签页中还没有图片，结果只记录在日志中
+      alert.showAndWait().ifPresent(choice -> {
+        if (choice == resume) {
+          committer.resume(interrupted.journal(), _ -> {});
+        } else if (choice == rollback) {
+          committer.rollback(interrupted.journal(), _ -> {});
+        }
+      });
+    }
   }
 
   //----------------------------------------------------
@@ -136,6 +295,14 @@ public class MainController {
     return (ImageCollectionTab) selectedTab;
   }
 
+  /**
+   * 解码图片已加载的缩略图，用于预览图解码完成前占位。
+   * 单独解码一份而不是借用单元格中的图片，单元格滚出屏幕时会归还图片的像素缓冲。
+   */
+  private Image findThumbnailImage(String imagePath) {
+    return imagePath == null ? null : ThumbnailLoader.getInstance().inflate(imagePath);
+  }
+
   @EventListener
   public void onPrevImage(Events.NavigationEvent.PrevImage ignoredEvent) {
     var thumbnailList = getCurrentThumbnailList();
@@ -156,10 +323,28 @@ public class MainController {
   public void onGotoImage(Events.NavigationEvent.GotoImage event) {
     var thumbnailList = getCurrentThumbnailList();
     if (thumbnailList != null) {
+      // 单击一张图片时放弃多选
+      thumbnailList.clearSelection();
       thumbnailList.changeActiveThumbnail(event.thumbnail());
     }
   }
 
+  @EventListener
+  public void onToggleSelection(Events.SelectionEvent.ToggleSelection event) {
+    var thumbnailList = getCurrentThumbnailList();
+    if (thumbnailList != null) {
+      thumbnailList.toggleSelection(event.thumbnail());
+    }
+  }
+
+  @EventListener
+  public void onSelectRange(Events.SelectionEvent.SelectRange event) {
+    var thumbnailList = getCurrentThumbnailList();
+    if (thumbnailList != null) {
+      thumbnailList.selectRange(event.thumbnail());
+    }
+  }
+
   @EventListener
   public void onActiveThumbnailChanged(Events.ActiveThumbnailEvent.ActiveThumbnailChanged event) {
     ImageCollectionTab collectionTab = getCurrentCollectionTab();
@@ -168,66 +353,120 @@ public class MainController {
     }
   }
 
+  // 以下事件由 EventDispatcher 在 JavaFX 线程中投递
+
+  /**
+   * 如果事件来自最近开始的过程，记下它的编号
+   *
+   * @return false 表示事件来自已被取代的过程，应当忽略
+   */
+  private boolean acceptProgressSession(long sessionId) {
+    if (sessionId < progressSessionId) {
+      return false;
+    }
+    progressSessionId = sessionId;
+    return true;
+  }
+
   @EventListener
   public void onLoadingStarted(Events.LoadingImagesEvent.Started event) {
+    if (!acceptProgressSession(event.sessionId())) {
+      return;
+    }
     MindPixApplication.CURRENT_FOLDER.set(event.folderAbsolutePath());
-    Platform.runLater(() -> readingProgressPane.setMaxHeight(-1));
-
-    // 更新配置中的最后打开目录
-    MindPixConfig config = MindPixConfig.getInstance();
-    config.setLastOpenedDir(event.folderAbsolutePath());
-    config.save();
+    readingProgressPane.setMaxHeight(-1);
+    // 扫描完成之前总数未知
+    readingProgressBar.setProgress(ProgressBar.INDETERMINATE_PROGRESS);
+    readingProgressLabel.setText("");
   }
 
   @EventListener
   public void onLoadingFinished(Events.LoadingImagesEvent.Finished event) {
-    Platform.runLater(() -> readingProgressPane.setMaxHeight(0));
+    // 被取代的过程结束时不能隐藏正在进行的过程的进度
+    if (acceptProgressSession(event.sessionId())) {
+      readingProgressPane.setMaxHeight(0);
+    }
   }
 
   @EventListener
   public void onLoadingProgress(Events.LoadingImagesEvent.Progress event) {
-    Platform.runLater(() -> {
-      if (readingProgressPane.getMaxHeight() != -1) {
-        readingProgressPane.setMaxHeight(-1);
-      }
-      readingProgressBar.setProgress(event.progress());
-      readingProgressLabel.setText(event.current() + "/" + event.total());
-    });
+    if (!acceptProgressSession(event.sessionId())) {
+      return;
+    }
+    // 进度事件只投递最新的一个，不会每张图片都刷新一次界面
+    if (readingProgressPane.getMaxHeight() != -1) {
+      readingProgressPane.setMaxHeight(-1);
+    }
+    readingProgressBar.setProgress(event.progress());
+    readingProgressLabel.setText(event.total() > 0 ? event.current() + "/" + event.total() : String.valueOf(event.current()));
   }
 
   @EventListener
   public void onTransferImageToTab(Events.TransferImageEvent.TransferToTab event) {
     int tabNumber = event.tabNumber();
-    Thumbnail thumbnail = event.thumbnail();
-
-    Platform.runLater(() -> {
-      // 查找目标标签页
-      ImageCollectionTab targetTab = findTabByNumber(tabNumber);
-
-      // 如果目标标签页不存在，创建新的
-      if (targetTab == null) {
-        targetTab = new ImageCollectionTab(String.valueOf(tabNumber));
-        collectionsTabPane.getTabs().add(targetTab);
-        // 新增Tab后排序
-        sortTabsByTitle();
-        // 设置新建的Tab为CURRENT_TAB（这里不需要，因为TabPane的监听器会自动处理）
-      }
 
-      // 获取当前标签页
-      ImageCollectionTab sourceTab = getCurrentCollectionTab();
-      if (sourceTab == null || sourceTab == targetTab) {
-        return; // 无法转移或不需要转移
-      }
+    // 查找目标标签页
+    ImageCollectionTab targetTab = findTabByNumber(tabNumber);
 
-      // 从源标签页移除缩略图（removeThumbnail会自动重置状态）
-      sourceTab.getThumbnailList().removeThumbnail(thumbnail);
+    // 如果目标标签页不存在，创建新的
+    if (targetTab == null) {
+      targetTab = new ImageCollectionTab(String.valueOf(tabNumber));
+      collectionsTabPane.getTabs().add(targetTab);
+      // 新增Tab后排序
+      sortTabsByTitle();
+      // 设置新建的Tab为CURRENT_TAB（这里不需要，因为TabPane的监听器会自动处理）
+    }
 
-      // 添加到目标标签页（不自动选中）
-      targetTab.getThumbnailList().addThumbnail(thumbnail, false);
+    transferThumbnails(targetTab, event.thumbnails());
+  }
 
+  @EventListener
+  public void onFolderImagesRemoved(Events.FolderChangeEvent.ImagesRemoved event) {
+    getCollectionTabs().forEach(tab -> tab.getThumbnailList().removeThumbnailsByPath(event.imagePaths()));
+  }
+
+  @EventListener
+  public void onFolderImagesChanged(Events.FolderChangeEvent.ImagesChanged event) {
+    // 已经转移到其他标签页的图片在那里重新加载，剩下的才是新文件
+    Set<String> notHeld = new LinkedHashSet<>(event.imagePaths());
+    for (ImageCollectionTab tab : getCollectionTabs()) {
+      notHeld.removeAll(tab.getThumbnailList().reloadThumbnails(event.imagePaths()));
+    }
+    if (!notHeld.isEmpty()) {
+      event.notHeld().accept(new ArrayList<>(notHeld));
+    }
+  }
+
+  private List<ImageCollectionTab> getCollectionTabs() {
+    return collectionsTabPane.getTabs().stream()
+        .filter(tab -> tab instanceof ImageCollectionTab)
+        .map(tab -> (ImageCollectionTab) tab)
+        .toList();
+  }
+
+  /**
+   * 把当前标签页中的一批缩略图整批移到目标标签页：两边各修改一次集合、布局一次
+   */
+  private void transferThumbnails(ImageCollectionTab targetTab, List<Thumbnail> thumbnails) {
+    // 获取当前标签页
+    ImageCollectionTab sourceTab = getCurrentCollectionTab();
+    if (sourceTab == null || sourceTab == targetTab) {
+      return; // 无法转移或不需要转移
+    }
+
+    // 从源标签页移除缩略图（会自动重置状态），不在源标签页中的被忽略
+    List<Thumbnail> moved = sourceTab.getThumbnailList().removeThumbnails(thumbnails);
+
+    // 添加到目标标签页（不自动选中）
+    targetTab.getThumbnailList().addThumbnails(moved);
+
+    if (moved.size() == 1) {
       log.info("Transferred image from tab '{}' to tab '{}' : {}",
-               sourceTab.getTitle(), targetTab.getTitle(), thumbnail.getImagePath());
-    });
+               sourceTab.getTitle(), targetTab.getTitle(), moved.getFirst().getImagePath());
+    } else if (!moved.isEmpty()) {
+      log.info("Transferred {} images from tab '{}' to tab '{}'",
+               moved.size(), sourceTab.getTitle(), targetTab.getTitle());
+    }
   }
 
   private void sortTabsByTitle() {
@@ -269,7 +508,10 @@ public class MainController {
   }
 
   private ImageCollectionTab findTabByNumber(int number) {
-    String tabTitle = String.valueOf(number);
+    return findTabByTitle(String.valueOf(number));
+  }
+
+  private ImageCollectionTab findTabByTitle(String tabTitle) {
     return collectionsTabPane.getTabs().stream()
         .filter(tab -> tab instanceof ImageCollectionTab)
         .map(tab -> (ImageCollectionTab) tab)
@@ -280,31 +522,14 @@ public class MainController {
 
   @EventListener
   public void onTransferImageToFirstTab(Events.TransferImageEvent.TransferToFirstTab event) {
-    Thumbnail thumbnail = event.thumbnail();
-
-    Platform.runLater(() -> {
-      // 获取第一个标签页（索引为0的Tab）
-      Tab firstTab = collectionsTabPane.getTabs().get(0);
-      if (!(firstTab instanceof ImageCollectionTab targetTab)) {
-        log.warn("First tab is not an ImageCollectionTab");
-        return;
-      }
-
-      // 获取当前标签页
-      ImageCollectionTab sourceTab = getCurrentCollectionTab();
-      if (sourceTab == null || sourceTab == targetTab) {
-        return; // 无法转移或不需要转移
-      }
-
-      // 从源标签页移除缩略图（removeThumbnail会自动重置状态）
-      sourceTab.getThumbnailList().removeThumbnail(thumbnail);
-
-      // 添加到第一个标签页（不自动选中）
-      targetTab.getThumbnailList().addThumbnail(thumbnail, false);
+    // 获取第一个标签页（索引为0的Tab）
+    Tab firstTab = collectionsTabPane.getTabs().get(0);
+    if (!(firstTab instanceof ImageCollectionTab targetTab)) {
+      log.warn("First tab is not an ImageCollectionTab");
+      return;
+    }
 
-      log.info("Transferred image from tab '{}' to first tab: {}",
-               sourceTab.getTitle(), thumbnail.getImagePath());
-    });
+    transferThumbnails(targetTab, event.thumbnails());
   }
 
 
@@ -322,6 +547,14 @@ public class MainController {
   }
 
   public void openFolder() {
+    chooseAndOpenFolder(false);
+  }
+
+  public void openFolderRecursively() {
+    chooseAndOpenFolder(true);
+  }
+
+  private void chooseAndOpenFolder(boolean recursive) {
 
     // 只允许第一个标签页加载文件夹
     this.collectionsTabPane.getSelectionModel().select(0);
@@ -340,7 +573,7 @@ public class MainController {
     if (dir != null && dir.isDirectory()) {
       ThumbnailList currentThumbnailList = getCurrentThumbnailList();
       if (currentThumbnailList != null) {
-        currentThumbnailList.openDirectory(dir.getAbsolutePath());
+        currentThumbnailList.openDirectory(dir.getAbsolutePath(), recursive);
       }
     }
   }
@@ -0,0 +1,24 @@
+package com.hyd.mindpix.enums;
+
+/**
+ * 把标签页中的图片提交到文件夹的方式
+ */
+public enum CommitMode {
+  MOVE("移动"),
+  COPY("复制");
+
+  private final String displayName;
+
+  CommitMode(String displayName) {
+    this.displayName = displayName;
+  }
+
+  public String getDisplayName() {
+    return displayName;
+  }
+
+  @Override
+  public String toString() {
+    return displayName;
+  }
+}
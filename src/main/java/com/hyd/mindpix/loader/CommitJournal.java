@@ -0,0 +1,230 @@
+package com.hyd.mindpix.loader;
+
+import com.hyd.mindpix.enums.CommitMode;
+import lombok.Getter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * 提交标签页时的预写日志。开始搬运文件之前，先把完整的计划（每个源文件对应的目标文件）写入并刷到磁盘，
+ * 之后每完成一个文件追加一条完成记录，全部结束后删除日志。
+ * 程序中途退出时留下的日志记录了全部计划，可以据此继续或撤销这次提交。
+ * <p>
+ * 日志是文本文件，每行一条记录，字段以制表符分隔：
+ * <pre>
+ * MODE    MOVE|COPY
+ * TARGET  目标文件夹
+ * PLAN    序号  源文件  目标文件  源文件大小  源文件修改时间（毫秒）
+ * DONE    序号
+ * </pre>
+ * 完成记录只是提示，不保证及时落盘；继续或撤销时以文件的实际状态为准。
+ * 搬运保留文件的修改时间，大小和修改时间都与计划一致的目标文件才认为是这次提交产生的。
+ */
+class CommitJournal implements Closeable {
+
+  static final String FILE_SUFFIX = ".journal";
+
+  /**
+   * 累计这么多条完成记录后刷一次磁盘
+   */
+  private static final int FLUSH_INTERVAL = 256;
+
+  /**
+   * 修改时间的比较容差，FAT 等文件系统只精确到两秒
+   */
+  private static final long MODIFIED_TOLERANCE_MILLIS = 2000;
+
+  /**
+   * @param size     计划时源文件的大小，源文件不存在时为 -1
+   * @param modified 计划时源文件的修改时间（毫秒）
+   */
+  record Entry(int index, Path source, Path target, long size, long modified) {
+
+    /**
+     * 文件的大小和修改时间是否与计划时的源文件一致，即是否是这次提交搬运的文件
+     */
+    boolean matches(Path file) throws IOException {
+      if (size < 0 || Files.notExists(file)) {
+        return false;
+      }
+      return Files.size(file) == size
+        && Math.abs(Files.getLastModifiedTime(file).toMillis() - modified) < MODIFIED_TOLERANCE_MILLIS;
+    }
+  }
+
+  @Getter
+  private final Path file;
+
+  @Getter
+  private final CommitMode mode;
+
+  @Getter
+  private final Path targetDir;
+
+  @Getter
+  private final List<Entry> entries;
+
+  private final BitSet done;
+
+  private final FileChannel channel;
+
+  private final Writer writer;
+
+  private int unflushed = 0;
+
+  private CommitJournal(Path file, CommitMode mode, Path targetDir, List<Entry> entries, BitSet done) throws IOException {
+    this.file = file;
+    this.mode = mode;
+    this.targetDir = targetDir;
+    this.entries = entries;
+    this.done = done;
+    this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    this.writer = Channels.newWriter(channel, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * 创建日志并把全部计划写入磁盘，返回之后才可以开始搬运文件
+   */
+  static CommitJournal create(Path journalDir, CommitMode mode, Path targetDir, List<Entry> entries) throws IOException {
+    Files.createDirectories(journalDir);
+    Path file = journalDir.resolve("commit-" + System.currentTimeMillis() + FILE_SUFFIX);
+    var journal = new CommitJournal(file, mode, targetDir, entries, new BitSet(entries.size()));
+    journal.writeLine("MODE", mode.name());
+    journal.writeLine("TARGET", targetDir.toString());
+    for (Entry entry : entries) {
+      journal.writeLine("PLAN", String.valueOf(entry.index()), entry.source().toString(), entry.target().toString(),
+        String.valueOf(entry.size()), String.valueOf(entry.modified()));
+    }
+    journal.sync();
+    return journal;
+  }
+
+  /**
+   * 打开中途退出时留下的日志
+   */
+  static CommitJournal open(Path file) throws IOException {
+    CommitMode mode = null;
+    Path targetDir = null;
+    List<Entry> entries = new ArrayList<>();
+    BitSet done = new BitSet();
+    for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+      String[] fields = line.split("\t", -1);
+      try {
+        switch (fields[0]) {
+          case "MODE" -> mode = CommitMode.valueOf(fields[1]);
+          case "TARGET" -> targetDir = Path.of(unescape(fields[1]));
+          case "PLAN" -> entries.add(new Entry(Integer.parseInt(fields[1]),
+            Path.of(unescape(fields[2])), Path.of(unescape(fields[3])),
+            Long.parseLong(fields[4]), Long.parseLong(fields[5])));
+          case "DONE" -> done.set(Integer.parseInt(fields[1]));
+          default -> {
+            // 忽略无法识别的记录
+          }
+        }
+      } catch (RuntimeException e) {
+        // 最后一行可能只写了一半
+      }
+    }
+    if (mode == null || targetDir == null) {
+      throw new IOException("Invalid commit journal: " + file);
+    }
+    return new CommitJournal(file, mode, targetDir, entries, done);
+  }
+
+  synchronized int doneCount() {
+    return done.cardinality();
+  }
+
+  synchronized void markDone(int index) throws IOException {
+    done.set(index);
+    writeLine("DONE", String.valueOf(index));
+    if (++unflushed >= FLUSH_INTERVAL) {
+      writer.flush();
+      unflushed = 0;
+    }
+  }
+
+  private void writeLine(String... fields) throws IOException {
+    for (int i = 0; i < fields.length; i++) {
+      if (i > 0) {
+        writer.write('\t');
+      }
+      writer.write(escape(fields[i]));
+    }
+    writer.write('\n');
+  }
+
+  private void sync() throws IOException {
+    writer.flush();
+    channel.force(false);
+  }
+
+  /**
+   * 提交结束（完成或撤销）后删除日志
+   */
+  void delete() throws IOException {
+    close();
+    Files.deleteIfExists(file);
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (channel.isOpen()) {
+      sync();
+      writer.close();
+    }
+  }
+
+  //----------------------------------------------------
+  // 路径中的反斜杠、制表符和换行符需要转义
+
+  private static String escape(String text) {
+    if (text.indexOf('\\') < 0 && text.indexOf('\t') < 0 && text.indexOf('\n') < 0 && text.indexOf('\r') < 0) {
+      return text;
+    }
+    var builder = new StringBuilder(text.length() + 8);
+    for (char c : text.toCharArray()) {
+      switch (c) {
+        case '\\' -> builder.append("\\\\");
+        case '\t' -> builder.append("\\t");
+        case '\n' -> builder.append("\\n");
+        case '\r' -> builder.append("\\r");
+        default -> builder.append(c);
+      }
+    }
+    return builder.toString();
+  }
+
+  private static String unescape(String text) {
+    if (text.indexOf('\\') < 0) {
+      return text;
+    }
+    var builder = new StringBuilder(text.length());
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (c == '\\' && i + 1 < text.length()) {
+        char next = text.charAt(++i);
+        builder.append(switch (next) {
+          case 't' -> '\t';
+          case 'n' -> '\n';
+          case 'r' -> '\r';
+          default -> next;
+        });
+      } else {
+        builder.append(c);
+      }
+    }
+    return builder.toString();
+  }
+}
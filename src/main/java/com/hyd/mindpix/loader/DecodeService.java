@@ -0,0 +1,128 @@
+package com.hyd.mindpix.loader;
+
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+/**
+ * 预览图解码的汇合点，让一次解码同时供预览和缩略图使用：
+ * <ul>
+ *   <li>同一张图片同时只解码一次，其他请求（预览、预取、生成缩略图）等待同一个结果</li>
+ *   <li>正在解码或已缓存的预览图可以直接缩小成缩略图，加载缩略图时不必再读取原图</li>
+ *   <li>即将预览的图片（例如打开文件夹后自动选中的第一张）在生成缩略图时直接按预览尺寸解码，
+ *       结果留在 {@link ImageCache} 中，随后的预览请求直接使用</li>
+ * </ul>
+ */
+public class DecodeService {
+
+  /**
+   * 等待其他线程解码结果时，检查是否已取消的间隔
+   */
+  private static final long POLL_MILLIS = 50;
+
+  private static DecodeService instance;
+
+  private final Map<String, CompletableFuture<PreviewImage>> inFlight = new ConcurrentHashMap<>();
+
+  private volatile String expectedPreview;
+
+  public static synchronized DecodeService getInstance() {
+    if (instance == null) {
+      instance = new DecodeService();
+    }
+    return instance;
+  }
+
+  private DecodeService() {
+  }
+
+  /**
+   * 预告即将预览的图片，生成它的缩略图时按预览尺寸解码，两边共用一次解码
+   */
+  public void expectPreview(String imagePath) {
+    this.expectedPreview = imagePath;
+  }
+
+  boolean isPreviewExpected(String imagePath) {
+    return imagePath.equals(expectedPreview);
+  }
+
+  /**
+   * 解码预览图。同一张图片已经在解码时等待其结果，结果不满足要求的尺寸时再自己解码。
+   *
+   * @param imagePath 图片路径
+   * @param maxSize   最长边的像素数，{@link ImageCache.Key#ORIGINAL} 表示原图
+   * @param cancelled 返回 true 时停止等待或中止解码
+   * @param decoder   实际的解码过程
+   * @return 预览图，失败或被取消时返回 null
+   */
+  PreviewImage decode(String imagePath, int maxSize, BooleanSupplier cancelled, Supplier<PreviewImage> decoder) {
+    while (!cancelled.getAsBoolean()) {
+      var future = new CompletableFuture<PreviewImage>();
+      CompletableFuture<PreviewImage> running = inFlight.putIfAbsent(imagePath, future);
+      if (running == null) {
+        return decodeAndShare(imagePath, future, decoder);
+      }
+      PreviewImage shared = await(running, cancelled);
+      if (shared != null && shared.satisfies(maxSize)) {
+        return shared;
+      }
+      if (Thread.currentThread().isInterrupted()) {
+        return null;
+      }
+      // 结果尺寸不够或对方被取消，再试一次，此时通常由自己解码
+    }
+    return null;
+  }
+
+  private PreviewImage decodeAndShare(String imagePath, CompletableFuture<PreviewImage> future,
+                                      Supplier<PreviewImage> decoder) {
+    PreviewImage preview = null;
+    try {
+      preview = decoder.get();
+      return preview;
+    } finally {
+      inFlight.remove(imagePath, future);
+      future.complete(preview);
+    }
+  }
+
+  /**
+   * 生成缩略图前查找可用的预览图：正在解码时等待结果，缓存中已有时直接使用
+   *
+   * @param cancelled 返回 true 时停止等待
+   * @return 预览图，没有时返回 null
+   */
+  PreviewImage findDecoded(String imagePath, BooleanSupplier cancelled) {
+    CompletableFuture<PreviewImage> running = inFlight.get(imagePath);
+    if (running != null) {
+      PreviewImage shared = await(running, cancelled);
+      if (shared != null) {
+        return shared;
+      }
+    }
+    return PreviewLoader.getInstance().getCached(imagePath);
+  }
+
+  private static PreviewImage await(CompletableFuture<PreviewImage> future, BooleanSupplier cancelled) {
+    while (!cancelled.getAsBoolean()) {
+      try {
+        return future.get(POLL_MILLIS, TimeUnit.MILLISECONDS);
+      } catch (TimeoutException e) {
+        // 继续等待
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return null;
+      } catch (ExecutionException | CancellationException e) {
+        return null;
+      }
+    }
+    return null;
+  }
+}
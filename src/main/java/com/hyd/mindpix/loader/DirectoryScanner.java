@@ -0,0 +1,182 @@
+package com.hyd.mindpix.loader;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * 流式扫描文件夹：边读取目录项边分批交出结果，不必等整个目录读完。
+ * 第一批很小，界面可以尽快显示内容；之后按数量或时间间隔成批交出，避免频繁刷新界面。
+ */
+@Slf4j
+public class DirectoryScanner {
+
+  /**
+   * 第一批的文件数
+   */
+  private static final int FIRST_BATCH_SIZE = 64;
+
+  /**
+   * 之后每批的最大文件数
+   */
+  private static final int BATCH_SIZE = 1024;
+
+  /**
+   * 两批之间的最大间隔，目录读取很慢（例如网络文件夹）时也能持续看到进展
+   */
+  private static final long BATCH_INTERVAL_MILLIS = 100;
+
+  private DirectoryScanner() {
+  }
+
+  /**
+   * 扫描文件夹中的文件（不包括子文件夹），在调用者线程中执行
+   *
+   * @param folder         文件夹
+   * @param fileNameFilter 按文件名过滤，先于读取文件属性执行
+   * @param cancelled      返回 true 时停止扫描
+   * @param onBatch        每批文件的绝对路径，按目录读取顺序排列
+   */
+  public static void scan(Path folder, Predicate<String> fileNameFilter,
+                          BooleanSupplier cancelled, Consumer<List<Path>> onBatch) throws IOException {
+    var batcher = new Batcher(onBatch);
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder)) {
+      for (Path path : stream) {
+        if (cancelled.getAsBoolean()) {
+          return;
+        }
+        if (fileNameFilter.test(path.getFileName().toString()) && Files.isRegularFile(path)) {
+          batcher.add(List.of(path.toAbsolutePath()));
+        }
+      }
+    }
+    if (!cancelled.getAsBoolean()) {
+      batcher.flush();
+    }
+  }
+
+  /**
+   * 递归扫描文件夹及其所有子文件夹，每个子文件夹由 fork/join 线程池中的一个任务读取，
+   * 扫描速度随 CPU 核数增长。不跟随符号链接进入子文件夹，避免循环。调用者线程等待扫描结束。
+   *
+   * @param root           根文件夹
+   * @param fileNameFilter 按文件名过滤，先于读取文件属性执行
+   * @param cancelled      返回 true 时停止扫描
+   * @param onBatch        每批文件的绝对路径，同一文件夹中的文件尽量在同一批中；可能在多个线程中调用，但不会并发调用
+   */
+  public static void scanRecursively(Path root, Predicate<String> fileNameFilter,
+                                     BooleanSupplier cancelled, Consumer<List<Path>> onBatch) throws IOException {
+    var batcher = new Batcher(onBatch);
+    var pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    try {
+      pool.invoke(new FolderTask(root.toAbsolutePath(), fileNameFilter, cancelled, batcher, true));
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    } finally {
+      pool.shutdown();
+    }
+    if (!cancelled.getAsBoolean()) {
+      batcher.flush();
+    }
+  }
+
+  private static class FolderTask extends RecursiveAction {
+
+    private final Path folder;
+
+    private final Predicate<String> fileNameFilter;
+
+    private final BooleanSupplier cancelled;
+
+    private final Batcher batcher;
+
+    /**
+     * 根文件夹读取失败时向调用者报告，子文件夹读取失败时只记录日志
+     */
+    private final boolean root;
+
+    private FolderTask(Path folder, Predicate<String> fileNameFilter, BooleanSupplier cancelled,
+                       Batcher batcher, boolean root) {
+      this.folder = folder;
+      this.fileNameFilter = fileNameFilter;
+      this.cancelled = cancelled;
+      this.batcher = batcher;
+      this.root = root;
+    }
+
+    @Override
+    protected void compute() {
+      List<Path> files = new ArrayList<>();
+      List<FolderTask> subfolders = new ArrayList<>();
+      try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder)) {
+        for (Path path : stream) {
+          if (cancelled.getAsBoolean()) {
+            return;
+          }
+          if (fileNameFilter.test(path.getFileName().toString()) && Files.isRegularFile(path)) {
+            files.add(path);
+          } else if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+            subfolders.add(new FolderTask(path, fileNameFilter, cancelled, batcher, false));
+          }
+        }
+      } catch (IOException e) {
+        if (root) {
+          throw new UncheckedIOException(e);
+        }
+        log.warn("Error scanning folder {}", folder, e);
+      }
+
+      if (!files.isEmpty()) {
+        batcher.add(files);
+      }
+      invokeAll(subfolders);
+    }
+  }
+
+  /**
+   * 收集扫描结果，攒够一批或到了时间间隔时交出
+   */
+  private static class Batcher {
+
+    private final Consumer<List<Path>> onBatch;
+
+    private List<Path> batch = new ArrayList<>();
+
+    private int batchSize = FIRST_BATCH_SIZE;
+
+    private long lastFlush = System.currentTimeMillis();
+
+    private Batcher(Consumer<List<Path>> onBatch) {
+      this.onBatch = onBatch;
+    }
+
+    synchronized void add(List<Path> paths) {
+      batch.addAll(paths);
+      long now = System.currentTimeMillis();
+      if (batch.size() >= batchSize || now - lastFlush >= BATCH_INTERVAL_MILLIS) {
+        batchSize = BATCH_SIZE;
+        lastFlush = now;
+        flush();
+      }
+    }
+
+    synchronized void flush() {
+      if (!batch.isEmpty()) {
+        onBatch.accept(batch);
+        batch = new ArrayList<>();
+      }
+    }
+  }
+}
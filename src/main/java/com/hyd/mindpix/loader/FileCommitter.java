@@ -0,0 +1,386 @@
+package com.hyd.mindpix.loader;
+
+import com.hyd.mindpix.Events;
+import com.hyd.mindpix.MindPixMain;
+import com.hyd.mindpix.enums.CommitMode;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * 把标签页中的图片提交到文件夹：移动或复制到目标文件夹中。
+ * <ul>
+ *   <li>提交在后台进行，同一时间只进行一次，后来的排队；文件在多个线程中并行搬运</li>
+ *   <li>同一个卷上直接原子改名，跨卷时先流式复制到临时文件，写完后改名，再删除源文件</li>
+ *   <li>不覆盖已有的文件：目标文件已存在时这个文件失败，留在原处</li>
+ *   <li>开始搬运前先写好 {@link CommitJournal}，程序中途退出后可以继续或撤销这次提交</li>
+ *   <li>进度通过 {@link Events.LoadingImagesEvent} 显示在加载进度条上</li>
+ * </ul>
+ */
+@Slf4j
+public class FileCommitter {
+
+  private static final int IO_THREADS = Math.max(2, Math.min(8, Runtime.getRuntime().availableProcessors()));
+
+  private static final String PART_SUFFIX = ".part";
+
+  private static FileCommitter instance;
+
+  private final Path journalDir;
+
+  private final ExecutorService coordinator = Executors.newSingleThreadExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "file-committer");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private final AtomicInteger threadCounter = new AtomicInteger();
+
+  private final ExecutorService ioExecutor = Executors.newFixedThreadPool(IO_THREADS, runnable -> {
+    Thread thread = new Thread(runnable, "file-committer-io-" + threadCounter.incrementAndGet());
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  /**
+   * 一次提交（或继续、撤销）的结果
+   *
+   * @param completed 处理成功的源文件
+   * @param failed    处理失败的源文件，仍在原处
+   */
+  public record Result(CommitMode mode, Path targetDir, List<String> completed, List<String> failed) {
+  }
+
+  /**
+   * 中途退出时留下的提交
+   *
+   * @param journal 日志文件
+   * @param total   计划搬运的文件数
+   * @param done    已记录完成的文件数
+   */
+  public record InterruptedCommit(Path journal, CommitMode mode, Path targetDir, int total, int done) {
+  }
+
+  @FunctionalInterface
+  private interface EntryAction {
+    void apply(CommitJournal.Entry entry, CommitMode mode) throws IOException;
+  }
+
+  public static synchronized FileCommitter getInstance() {
+    if (instance == null) {
+      instance = new FileCommitter(Path.of(System.getProperty("user.home"), ".mind-pix", "journals"));
+    }
+    return instance;
+  }
+
+  private FileCommitter(Path journalDir) {
+    this.journalDir = journalDir;
+  }
+
+  /**
+   * 把图片移动或复制到目标文件夹，同名文件自动改名，已经在目标文件夹中的图片被跳过
+   *
+   * @param onFinished 在后台线程中调用
+   */
+  public void commit(List<String> imagePaths, Path targetDir, CommitMode mode, Consumer<Result> onFinished) {
+    List<String> snapshot = List.copyOf(imagePaths);
+    coordinator.execute(() -> {
+      Path target = targetDir.toAbsolutePath().normalize();
+      CommitJournal journal;
+      try {
+        List<CommitJournal.Entry> entries = plan(snapshot, target);
+        if (entries.isEmpty()) {
+          onFinished.accept(new Result(mode, target, List.of(), List.of()));
+          return;
+        }
+        journal = CommitJournal.create(journalDir, mode, target, entries);
+      } catch (IOException e) {
+        log.error("Error preparing commit to {}", target, e);
+        onFinished.accept(new Result(mode, target, List.of(), snapshot));
+        return;
+      }
+      log.info("Committing {} images to {} ({})", journal.getEntries().size(), target, mode);
+      onFinished.accept(run(journal, FileCommitter::transfer, true));
+    });
+  }
+
+  /**
+   * 查找中途退出时留下的提交
+   */
+  public List<InterruptedCommit> findInterrupted() {
+    List<InterruptedCommit> result = new ArrayList<>();
+    if (!Files.isDirectory(journalDir)) {
+      return result;
+    }
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(journalDir, "*" + CommitJournal.FILE_SUFFIX)) {
+      for (Path file : stream) {
+        try (CommitJournal journal = CommitJournal.open(file)) {
+          result.add(new InterruptedCommit(file, journal.getMode(), journal.getTargetDir(),
+            journal.getEntries().size(), journal.doneCount()));
+        } catch (IOException e) {
+          log.warn("Ignoring unreadable commit journal {}: {}", file, e.toString());
+        }
+      }
+    } catch (IOException e) {
+      log.warn("Error listing commit journals in {}", journalDir, e);
+    }
+    return result;
+  }
+
+  /**
+   * 继续中断的提交。每个文件都按实际状态重新检查一遍，已经搬运过的被跳过
+   *
+   * @param onFinished 在后台线程中调用
+   */
+  public void resume(Path journalFile, Consumer<Result> onFinished) {
+    coordinator.execute(() -> {
+      try {
+        CommitJournal journal = CommitJournal.open(journalFile);
+        log.info("Resuming commit to {} ({})", journal.getTargetDir(), journal.getMode());
+        onFinished.accept(run(journal, FileCommitter::transfer, true));
+      } catch (IOException e) {
+        log.error("Error resuming commit {}", journalFile, e);
+      }
+    });
+  }
+
+  /**
+   * 撤销中断的提交：移动过的文件移回原处，复制出的文件被删除
+   *
+   * @param onFinished 在后台线程中调用
+   */
+  public void rollback(Path journalFile, Consumer<Result> onFinished) {
+    coordinator.execute(() -> {
+      try {
+        CommitJournal journal = CommitJournal.open(journalFile);
+        log.info("Rolling back commit to {} ({})", journal.getTargetDir(), journal.getMode());
+        onFinished.accept(run(journal, FileCommitter::revert, false));
+      } catch (IOException e) {
+        log.error("Error rolling back commit {}", journalFile, e);
+      }
+    });
+  }
+
+  /**
+   * 在 IO 线程中并行处理日志中的全部条目，结束后删除日志。有条目失败时日志同样删除，
+   * 失败的文件留在原处并在结果中列出。
+   *
+   * @param recordDone 是否在日志中记录完成的条目，撤销时不记录
+   */
+  private Result run(CommitJournal journal, EntryAction action, boolean recordDone) {
+    List<CommitJournal.Entry> entries = journal.getEntries();
+    int total = entries.size();
+    var finished = new AtomicInteger();
+    Queue<String> completed = new ConcurrentLinkedQueue<>();
+    Queue<String> failed = new ConcurrentLinkedQueue<>();
+    List<Future<?>> futures = new ArrayList<>(total);
+    long progressId = Events.LoadingImagesEvent.nextSessionId();
+
+    for (CommitJournal.Entry entry : entries) {
+      futures.add(ioExecutor.submit(() -> {
+        try {
+          action.apply(entry, journal.getMode());
+          if (recordDone) {
+            journal.markDone(entry.index());
+          }
+          completed.add(entry.source().toString());
+        } catch (IOException e) {
+          log.warn("Error committing {} to {}: {}", entry.source(), entry.target(), e.toString());
+          failed.add(entry.source().toString());
+        }
+        // 进度事件只投递最新的一个
+        MindPixMain.publish(new Events.LoadingImagesEvent.Progress(progressId, finished.incrementAndGet(), total));
+      }));
+    }
+
+    for (Future<?> future : futures) {
+      try {
+        future.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      } catch (ExecutionException e) {
+        log.warn("Unexpected error committing files", e.getCause());
+      }
+    }
+    MindPixMain.publish(new Events.LoadingImagesEvent.Finished(progressId));
+
+    try {
+      journal.delete();
+    } catch (IOException e) {
+      log.warn("Error deleting commit journal {}", journal.getFile(), e);
+    }
+    log.info("Commit to {} finished: {} done, {} failed", journal.getTargetDir(), completed.size(), failed.size());
+    return new Result(journal.getMode(), journal.getTargetDir(), List.copyOf(completed), List.copyOf(failed));
+  }
+
+  //----------------------------------------------------
+
+  /**
+   * 为每张图片确定目标文件，同名时追加序号。目标文件夹只列出一次，不逐个检查文件是否存在。
+   * 中断的提交还没有搬运的目标文件名同样被占用，之后继续那次提交时不会与这次冲突。
+   */
+  private List<CommitJournal.Entry> plan(List<String> imagePaths, Path targetDir) throws IOException {
+    Files.createDirectories(targetDir);
+    Set<String> taken = new HashSet<>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(targetDir)) {
+      for (Path existing : stream) {
+        taken.add(existing.getFileName().toString().toLowerCase(Locale.ROOT));
+      }
+    }
+    for (InterruptedCommit interrupted : findInterrupted()) {
+      try (CommitJournal journal = CommitJournal.open(interrupted.journal())) {
+        for (CommitJournal.Entry entry : journal.getEntries()) {
+          if (targetDir.equals(entry.target().getParent())) {
+            taken.add(entry.target().getFileName().toString().toLowerCase(Locale.ROOT));
+          }
+        }
+      }
+    }
+
+    List<CommitJournal.Entry> entries = new ArrayList<>(imagePaths.size());
+    for (String imagePath : imagePaths) {
+      Path source = Path.of(imagePath).toAbsolutePath().normalize();
+      if (targetDir.equals(source.getParent())) {
+        continue;
+      }
+      Path target = targetDir.resolve(uniqueName(source.getFileName().toString(), taken));
+      long size = -1;
+      long modified = -1;
+      try {
+        var attributes = Files.readAttributes(source, BasicFileAttributes.class);
+        size = attributes.size();
+        modified = attributes.lastModifiedTime().toMillis();
+      } catch (NoSuchFileException e) {
+        // 源文件已经不在了，搬运时失败
+      }
+      entries.add(new CommitJournal.Entry(entries.size(), source, target, size, modified));
+    }
+    return entries;
+  }
+
+  /**
+   * 文件名按不区分大小写比较，在不区分大小写的文件系统上也不会覆盖已有文件
+   */
+  private static String uniqueName(String fileName, Set<String> taken) {
+    int dot = fileName.lastIndexOf('.');
+    String base = dot > 0 ? fileName.substring(0, dot) : fileName;
+    String extension = dot > 0 ? fileName.substring(dot) : "";
+    String candidate = fileName;
+    for (int n = 1; taken.contains(candidate.toLowerCase(Locale.ROOT))
+                    || taken.contains((candidate + PART_SUFFIX).toLowerCase(Locale.ROOT)); n++) {
+      candidate = base + " (" + n + ")" + extension;
+    }
+    taken.add(candidate.toLowerCase(Locale.ROOT));
+    return candidate;
+  }
+
+  /**
+   * 搬运一个文件。继续中断的提交时同一个文件可能再次被处理，因此需要可以重复执行。
+   * 已存在的目标文件与计划时的源文件一致时认为上次已经搬运过，否则是别的文件，这个文件失败。
+   */
+  private static void transfer(CommitJournal.Entry entry, CommitMode mode) throws IOException {
+    Path source = entry.source();
+    Path target = entry.target();
+    if (Files.exists(target)) {
+      if (!entry.matches(target)) {
+        throw new FileAlreadyExistsException(target.toString());
+      }
+      if (mode == CommitMode.MOVE && entry.matches(source)) {
+        // 跨卷移动时已复制但还没删除源文件
+        Files.delete(source);
+      }
+      return;
+    }
+    if (mode == CommitMode.COPY) {
+      copyViaPartFile(source, target);
+    } else {
+      moveFile(source, target);
+    }
+  }
+
+  /**
+   * 撤销一个文件：只删除或移回与计划时的源文件一致的目标文件，
+   * 提交中断之后被替换或修改过的目标文件不是这次提交的结果，原样保留。
+   */
+  private static void revert(CommitJournal.Entry entry, CommitMode mode) throws IOException {
+    Path source = entry.source();
+    Path target = entry.target();
+    Files.deleteIfExists(partFileOf(target));
+    if (Files.notExists(target)) {
+      return;
+    }
+    if (!entry.matches(target)) {
+      throw new IOException("Target was changed after the commit, keeping it: " + target);
+    }
+    if (mode == CommitMode.COPY || Files.exists(source)) {
+      // 复制出的文件，或跨卷移动时已复制但还没删除源文件
+      Files.delete(target);
+    } else {
+      Files.createDirectories(source.getParent());
+      moveFile(target, source);
+    }
+  }
+
+  /**
+   * 移动文件，目标文件已存在时失败。原子改名会直接替换已有的文件，因此先检查。
+   */
+  private static void moveFile(Path source, Path target) throws IOException {
+    if (Files.exists(target)) {
+      throw new FileAlreadyExistsException(target.toString());
+    }
+    try {
+      Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+      return;
+    } catch (AtomicMoveNotSupportedException e) {
+      // 不在同一个卷上，改为复制后删除
+    }
+    copyViaPartFile(source, target);
+    Files.delete(source);
+  }
+
+  /**
+   * 先流式复制到同一文件夹中的临时文件，写完后再改名，目标文件夹中不会出现写了一半的图片。
+   * 改名时不替换已有的文件，复制期间目标文件被别人创建时失败。
+   */
+  private static void copyViaPartFile(Path source, Path target) throws IOException {
+    Path part = partFileOf(target);
+    try {
+      try (InputStream in = Files.newInputStream(source); OutputStream out = Files.newOutputStream(part)) {
+        in.transferTo(out);
+      }
+      Files.setLastModifiedTime(part, Files.getLastModifiedTime(source));
+      Files.move(part, target);
+    } catch (IOException e) {
+      Files.deleteIfExists(part);
+      throw e;
+    }
+  }
+
+  private static Path partFileOf(Path target) {
+    return target.resolveSibling(target.getFileName() + PART_SUFFIX);
+  }
+}
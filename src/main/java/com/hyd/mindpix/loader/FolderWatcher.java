@@ -0,0 +1,145 @@
+package com.hyd.mindpix.loader;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * 监视文件夹中的文件变化。连续的变化会被合并：最后一次变化之后安静 {@value #DEBOUNCE_MILLIS} 毫秒，
+ * 或者距第一次变化已超过 {@value #MAX_DELAY_MILLIS} 毫秒时，才把这段时间内的变化一次性交出。
+ * <p>
+ * 同一个文件的多次事件只看最终状态：交出时文件存在即为新增或修改，不存在即为删除。
+ */
+@Slf4j
+public class FolderWatcher implements Closeable {
+
+  private static final long DEBOUNCE_MILLIS = 300;
+
+  private static final long MAX_DELAY_MILLIS = 2000;
+
+  /**
+   * 一批文件变化
+   *
+   * @param changed  新增或修改的文件
+   * @param removed  删除的文件
+   * @param overflow 事件过多丢失了部分变化，需要重新扫描整个文件夹
+   */
+  public record Changes(List<Path> changed, List<Path> removed, boolean overflow) {
+  }
+
+  private final Path folder;
+
+  private final Predicate<String> fileNameFilter;
+
+  private final Consumer<Changes> onChanges;
+
+  private final WatchService watchService;
+
+  private volatile boolean closed = false;
+
+  private FolderWatcher(Path folder, Predicate<String> fileNameFilter, Consumer<Changes> onChanges) throws IOException {
+    this.folder = folder.toAbsolutePath();
+    this.fileNameFilter = fileNameFilter;
+    this.onChanges = onChanges;
+    this.watchService = folder.getFileSystem().newWatchService();
+    this.folder.register(watchService,
+      StandardWatchEventKinds.ENTRY_CREATE,
+      StandardWatchEventKinds.ENTRY_DELETE,
+      StandardWatchEventKinds.ENTRY_MODIFY);
+  }
+
+  /**
+   * 开始监视文件夹
+   *
+   * @param folder         文件夹
+   * @param fileNameFilter 按文件名过滤，只关心通过过滤的文件
+   * @param onChanges      在监视线程中调用
+   */
+  public static FolderWatcher watch(Path folder, Predicate<String> fileNameFilter, Consumer<Changes> onChanges)
+    throws IOException {
+    var watcher = new FolderWatcher(folder, fileNameFilter, onChanges);
+    Thread thread = new Thread(watcher::run, "folder-watcher");
+    thread.setDaemon(true);
+    thread.start();
+    return watcher;
+  }
+
+  private void run() {
+    Set<Path> touched = new LinkedHashSet<>();
+    boolean overflow = false;
+    long firstEventAt = 0;
+
+    while (!closed) {
+      WatchKey key;
+      try {
+        boolean idle = touched.isEmpty() && !overflow;
+        key = idle ? watchService.take() : watchService.poll(DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException | ClosedWatchServiceException e) {
+        return;
+      }
+
+      if (key != null) {
+        if (touched.isEmpty() && !overflow) {
+          firstEventAt = System.currentTimeMillis();
+        }
+        for (WatchEvent<?> event : key.pollEvents()) {
+          if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+            overflow = true;
+          } else if (event.context() instanceof Path name && fileNameFilter.test(name.toString())) {
+            touched.add(folder.resolve(name));
+          }
+        }
+        if (!key.reset()) {
+          log.info("Folder {} is no longer accessible, stop watching", folder);
+          closed = true;
+        } else if (System.currentTimeMillis() - firstEventAt < MAX_DELAY_MILLIS) {
+          continue;
+        }
+      }
+
+      if (!closed && (!touched.isEmpty() || overflow)) {
+        onChanges.accept(toChanges(touched, overflow));
+      }
+      touched = new LinkedHashSet<>();
+      overflow = false;
+    }
+  }
+
+  private static Changes toChanges(Set<Path> touched, boolean overflow) {
+    List<Path> changed = new ArrayList<>();
+    List<Path> removed = new ArrayList<>();
+    for (Path path : touched) {
+      if (Files.isRegularFile(path)) {
+        changed.add(path);
+      } else if (Files.notExists(path)) {
+        removed.add(path);
+      }
+    }
+    return new Changes(changed, removed, overflow);
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+    try {
+      watchService.close();
+    } catch (IOException e) {
+      log.warn("Error closing watch service for {}", folder, e);
+    }
+  }
+}
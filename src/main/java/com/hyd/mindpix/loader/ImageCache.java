@@ -0,0 +1,153 @@
+package com.hyd.mindpix.loader;
+
+import javafx.scene.image.Image;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 进程内图片缓存，缩略图和预览图共用。按像素字节数计算占用，超出预算时淘汰最久未使用的条目。
+ */
+@Slf4j
+public class ImageCache {
+
+  /**
+   * 缓存预算占最大堆内存的比例
+   */
+  private static final double HEAP_FRACTION = 0.25;
+
+  private static ImageCache instance;
+
+  private final long budgetBytes;
+
+  private final LinkedHashMap<Key, Image> entries = new LinkedHashMap<>(256, 0.75f, true);
+
+  private long usedBytes = 0;
+
+  private final AtomicLong hits = new AtomicLong();
+
+  private final AtomicLong misses = new AtomicLong();
+
+  private final AtomicLong evictions = new AtomicLong();
+
+  public static synchronized ImageCache getInstance() {
+    if (instance == null) {
+      instance = new ImageCache((long) (Runtime.getRuntime().maxMemory() * HEAP_FRACTION));
+    }
+    return instance;
+  }
+
+  private ImageCache(long budgetBytes) {
+    this.budgetBytes = budgetBytes;
+    log.info("Image cache budget: {} MB", budgetBytes / 1024 / 1024);
+  }
+
+  /**
+   * 缓存键
+   *
+   * @param imagePath 图片路径
+   * @param maxSize   图片最长边的最大像素数，{@link #ORIGINAL} 表示原图
+   */
+  public record Key(String imagePath, int maxSize) {
+
+    public static final int ORIGINAL = 0;
+
+    public static Key original(String imagePath) {
+      return new Key(imagePath, ORIGINAL);
+    }
+  }
+
+  public Image get(Key key) {
+    Image image;
+    synchronized (this) {
+      image = entries.get(key);
+    }
+    if (image != null) {
+      hits.incrementAndGet();
+    } else {
+      misses.incrementAndGet();
+    }
+    return image;
+  }
+
+  /**
+   * 判断是否已缓存，不影响命中统计和淘汰顺序
+   */
+  public synchronized boolean contains(Key key) {
+    return entries.containsKey(key);
+  }
+
+  public void put(Key key, Image image) {
+    if (image == null || image.isError()) {
+      return;
+    }
+    long size = sizeOf(image);
+    if (size > budgetBytes) {
+      return;
+    }
+    synchronized (this) {
+      Image previous = entries.put(key, image);
+      if (previous != null) {
+        usedBytes -= sizeOf(previous);
+      }
+      usedBytes += size;
+      evictOverBudget();
+    }
+  }
+
+  /**
+   * 移除某个图片的所有尺寸的缓存，用于原图发生变化时
+   */
+  public synchronized void invalidate(String imagePath) {
+    entries.entrySet().removeIf(entry -> {
+      if (entry.getKey().imagePath().equals(imagePath)) {
+        usedBytes -= sizeOf(entry.getValue());
+        return true;
+      }
+      return false;
+    });
+  }
+
+  private void evictOverBudget() {
+    Iterator<Map.Entry<Key, Image>> iterator = entries.entrySet().iterator();
+    while (usedBytes > budgetBytes && iterator.hasNext()) {
+      Map.Entry<Key, Image> eldest = iterator.next();
+      usedBytes -= sizeOf(eldest.getValue());
+      iterator.remove();
+      evictions.incrementAndGet();
+    }
+  }
+
+  private static long sizeOf(Image image) {
+    return (long) image.getWidth() * (long) image.getHeight() * 4;
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  public long getEvictions() {
+    return evictions.get();
+  }
+
+  public synchronized long getUsedBytes() {
+    return usedBytes;
+  }
+
+  public long getBudgetBytes() {
+    return budgetBytes;
+  }
+
+  public synchronized String stats() {
+    return String.format("entries=%d, used=%dMB/%dMB, hits=%d, misses=%d, evictions=%d",
+      entries.size(), usedBytes / 1024 / 1024, budgetBytes / 1024 / 1024,
+      hits.get(), misses.get(), evictions.get());
+  }
+}
@@ -0,0 +1,244 @@
+package com.hyd.mindpix.loader;
+
+import com.hyd.mindpix.Events;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * 一次文件夹加载过程，打开新文件夹时取消旧的会话。
+ * <p>
+ * 待加载的图片不预先提交到线程池，而是由工作线程通过 {@link #pollNext()} 按优先级领取：
+ * 可见区域优先，其次是滚动方向上的预取区域，最后是其余图片。
+ * 优先级通过 {@link #prioritize(List, List)} 随滚动实时更新。
+ * <p>
+ * 图片可以在加载过程中通过 {@link #addImages(List)} 陆续加入（例如边扫描文件夹边加载），
+ * 调用 {@link #finishAdding()} 之后，全部图片处理完毕会话才算结束。
+ */
+public class LoadingSession {
+
+  /**
+   * 进度事件中的会话编号
+   */
+  @Getter
+  private final long id = Events.LoadingImagesEvent.nextSessionId();
+
+  @Getter
+  private final String folder;
+
+  private final List<String> imagePaths = new ArrayList<>();
+
+  private final Map<String, Integer> indexByPath = new HashMap<>();
+
+  /**
+   * 尚未领取的图片序号
+   */
+  private final BitSet pending = new BitSet();
+
+  private int[] visible = new int[0];
+
+  private int[] prefetch = new int[0];
+
+  /**
+   * 其余图片从这个位置开始向后领取，即视口之后的图片先于视口之前的图片
+   */
+  private int restCursor = 0;
+
+  private final AtomicInteger completed = new AtomicInteger();
+
+  /**
+   * 已处理（完成、失败或跳过）的图片数
+   */
+  private int finished = 0;
+
+  /**
+   * 是否不会再有新的图片加入
+   */
+  private boolean sealed = false;
+
+  /**
+   * 正在领取任务的工作线程数
+   */
+  private int activeDrainers = 0;
+
+  /**
+   * 同时领取任务的工作线程数上限
+   */
+  private final int maxDrainers;
+
+  /**
+   * 需要启动新的工作线程时调用，参数为本会话和要启动的数量
+   */
+  private final ObjIntConsumer<LoadingSession> drainerStarter;
+
+  /**
+   * 是否发布加载进度事件
+   */
+  private final boolean reportingProgress;
+
+  private volatile boolean cancelled = false;
+
+  LoadingSession(String folder, int maxDrainers, boolean reportingProgress,
+                 ObjIntConsumer<LoadingSession> drainerStarter) {
+    this.folder = folder;
+    this.maxDrainers = maxDrainers;
+    this.reportingProgress = reportingProgress;
+    this.drainerStarter = drainerStarter;
+  }
+
+  boolean isReportingProgress() {
+    return reportingProgress;
+  }
+
+  /**
+   * 加入待加载的图片，已加入的图片会被忽略
+   */
+  public void addImages(List<String> paths) {
+    int toStart;
+    synchronized (this) {
+      if (cancelled || sealed) {
+        return;
+      }
+      for (String path : paths) {
+        if (indexByPath.putIfAbsent(path, imagePaths.size()) == null) {
+          pending.set(imagePaths.size());
+          imagePaths.add(path);
+        }
+      }
+      // 已经空闲退出的工作线程不会再领取任务，按需补充
+      toStart = Math.min(maxDrainers - activeDrainers, pending.cardinality());
+      activeDrainers += Math.max(0, toStart);
+    }
+    if (toStart > 0) {
+      drainerStarter.accept(this, toStart);
+    }
+  }
+
+  /**
+   * 所有图片都已加入
+   */
+  public synchronized void finishAdding() {
+    sealed = true;
+    notifyAll();
+  }
+
+  public synchronized int getTotal() {
+    return imagePaths.size();
+  }
+
+  /**
+   * 是否已调用 {@link #finishAdding()}，之后总数不再变化
+   */
+  public synchronized boolean isAddingFinished() {
+    return sealed;
+  }
+
+  public void cancel() {
+    this.cancelled = true;
+    synchronized (this) {
+      finished += pending.cardinality();
+      pending.clear();
+      sealed = true;
+      notifyAll();
+    }
+  }
+
+  public boolean isCancelled() {
+    return cancelled;
+  }
+
+  /**
+   * 更新加载优先级
+   *
+   * @param visiblePaths  当前可见的图片
+   * @param prefetchPaths 滚动方向上即将可见的图片，越靠前越先加载
+   */
+  public synchronized void prioritize(List<String> visiblePaths, List<String> prefetchPaths) {
+    this.visible = toIndexes(visiblePaths);
+    this.prefetch = toIndexes(prefetchPaths);
+    if (prefetch.length > 0) {
+      this.restCursor = prefetch[prefetch.length - 1];
+    } else if (visible.length > 0) {
+      this.restCursor = visible[visible.length - 1];
+    }
+  }
+
+  private int[] toIndexes(List<String> paths) {
+    return paths.stream()
+      .map(indexByPath::get)
+      .filter(Objects::nonNull)
+      .mapToInt(Integer::intValue)
+      .toArray();
+  }
+
+  /**
+   * 领取下一张要加载的图片，没有待加载的图片时调用者应退出，之后加入的图片会由新的工作线程领取
+   *
+   * @return 图片路径，没有待加载的图片时返回 null
+   */
+  synchronized String pollNext() {
+    int index = firstPending(visible);
+    if (index < 0) {
+      index = firstPending(prefetch);
+    }
+    if (index < 0) {
+      index = pending.nextSetBit(restCursor);
+    }
+    if (index < 0) {
+      index = pending.nextSetBit(0);
+    }
+    if (index < 0) {
+      activeDrainers--;
+      return null;
+    }
+    pending.clear(index);
+    return imagePaths.get(index);
+  }
+
+  private int firstPending(int[] indexes) {
+    for (int index : indexes) {
+      if (pending.get(index)) {
+        return index;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * 一个任务处理完毕（成功或失败）
+   *
+   * @return 已完成的任务数
+   */
+  int complete() {
+    markFinished();
+    return completed.incrementAndGet();
+  }
+
+  /**
+   * 已领取的任务因取消而未执行
+   */
+  void skip() {
+    markFinished();
+  }
+
+  private synchronized void markFinished() {
+    finished++;
+    notifyAll();
+  }
+
+  /**
+   * 等待所有图片加入并处理完毕
+   */
+  synchronized void awaitCompletion() throws InterruptedException {
+    while (!sealed || finished < imagePaths.size()) {
+      wait();
+    }
+  }
+}
@@ -0,0 +1,38 @@
+package com.hyd.mindpix.loader;
+
+import javafx.scene.image.Image;
+
+/**
+ * 预览图及其原图尺寸。预览图可能是按屏幕分辨率缩小解码的版本。
+ *
+ * @param imagePath    图片路径
+ * @param image        解码得到的图片
+ * @param maxSize      解码时限制的最长边像素数，{@link ImageCache.Key#ORIGINAL} 表示原图
+ * @param sourceWidth  原图宽度
+ * @param sourceHeight 原图高度
+ */
+public record PreviewImage(String imagePath, Image image, int maxSize, int sourceWidth, int sourceHeight) {
+
+  public boolean isFullResolution() {
+    return maxSize == ImageCache.Key.ORIGINAL || image.getWidth() >= sourceWidth;
+  }
+
+  /**
+   * 判断是否足以满足要求的尺寸
+   *
+   * @param requiredSize 要求的最长边像素数，{@link ImageCache.Key#ORIGINAL} 表示原图
+   */
+  public boolean satisfies(int requiredSize) {
+    return isFullResolution() || covers(maxSize, requiredSize);
+  }
+
+  /**
+   * 按某个尺寸解码的图片是否足以满足要求的尺寸
+   *
+   * @param maxSize      解码时限制的最长边像素数
+   * @param requiredSize 要求的最长边像素数
+   */
+  public static boolean covers(int maxSize, int requiredSize) {
+    return maxSize == ImageCache.Key.ORIGINAL || (requiredSize != ImageCache.Key.ORIGINAL && maxSize >= requiredSize);
+  }
+}
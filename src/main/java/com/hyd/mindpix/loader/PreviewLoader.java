@@ -0,0 +1,341 @@
+package com.hyd.mindpix.loader;
+
+import com.hyd.mindpix.utils.ExifUtils;
+import com.hyd.mindpix.utils.ImageUtils;
+import com.hyd.mindpix.utils.PixelUtils;
+import javafx.application.Platform;
+import javafx.scene.image.Image;
+import lombok.extern.slf4j.Slf4j;
+
+import java.awt.Dimension;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+/**
+ * 在后台线程解码预览大图，只保留最新的请求：新的请求会取消尚未开始的旧请求，
+ * 正在解码的旧请求在下一次读取文件时中止，结果也不会再交给界面。
+ * <p>
+ * 请求可以指定最长边的像素数，此时按该尺寸缩小解码，只有需要时才解码原图。
+ * 目标尺寸较大时可以先解码一个较小的草图交给界面，再继续解码目标尺寸。
+ * <p>
+ * 预览图按 EXIF 方向转正，记录的原图尺寸也是转正后的尺寸。
+ */
+@Slf4j
+public class PreviewLoader {
+
+  /**
+   * 记录原图尺寸的条目数上限
+   */
+  private static final int MAX_SOURCE_SIZES = 4096;
+
+  private static PreviewLoader instance;
+
+  private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "preview-loader");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private final AtomicLong generation = new AtomicLong();
+
+  /**
+   * 缩小解码的图片无法得知原图尺寸，单独记录
+   */
+  private final Map<String, Dimension> sourceSizes = new LinkedHashMap<>(256, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Dimension> eldest) {
+      return size() > MAX_SOURCE_SIZES;
+    }
+  };
+
+  /**
+   * 最近一次请求的尺寸，预取时使用相同的尺寸
+   */
+  private volatile int preferredSize = ImageCache.Key.ORIGINAL;
+
+  /**
+   * 当前的解码任务，只在 JavaFX 线程中访问
+   */
+  private Future<?> currentTask;
+
+  public static synchronized PreviewLoader getInstance() {
+    if (instance == null) {
+      instance = new PreviewLoader();
+    }
+    return instance;
+  }
+
+  private PreviewLoader() {
+  }
+
+  public int getPreferredSize() {
+    return preferredSize;
+  }
+
+  /**
+   * 加载预览图，必须在 JavaFX 线程中调用
+   *
+   * @param imagePath 图片路径，为 null 时清空预览
+   * @param maxSize   最长边的像素数，{@link ImageCache.Key#ORIGINAL} 表示原图
+   * @param onLoaded  加载完成后在 JavaFX 线程中调用，仅当该请求仍是最新请求时才会调用
+   */
+  public void load(String imagePath, int maxSize, Consumer<PreviewImage> onLoaded) {
+    load(imagePath, maxSize, -1, onLoaded);
+  }
+
+  /**
+   * 加载预览图，必须在 JavaFX 线程中调用
+   *
+   * @param imagePath 图片路径，为 null 时清空预览
+   * @param maxSize   最长边的像素数，{@link ImageCache.Key#ORIGINAL} 表示原图
+   * @param draftSize 草图最长边的像素数，大于 0 且小于 maxSize 时先解码草图交给界面，否则不解码草图
+   * @param onLoaded  加载完成后在 JavaFX 线程中调用，草图和最终结果各调用一次，
+   *                  仅当该请求仍是最新请求时才会调用
+   */
+  public void load(String imagePath, int maxSize, int draftSize, Consumer<PreviewImage> onLoaded) {
+    long requestId = generation.incrementAndGet();
+    if (currentTask != null) {
+      currentTask.cancel(true);
+      currentTask = null;
+    }
+
+    if (imagePath == null) {
+      onLoaded.accept(null);
+      return;
+    }
+
+    preferredSize = maxSize;
+    PreviewImage cached = getCached(imagePath, maxSize);
+    if (cached != null) {
+      onLoaded.accept(cached);
+      return;
+    }
+
+    BooleanSupplier cancelled = () -> generation.get() != requestId;
+    currentTask = executor.submit(() -> {
+      PreviewImage preview = awaitPrefetched(imagePath, maxSize);
+      if (preview == null) {
+        if (draftSize > 0 && !PreviewImage.covers(draftSize, maxSize)) {
+          PreviewImage draft = getCached(imagePath, draftSize);
+          if (draft == null) {
+            draft = decode(imagePath, draftSize, cancelled);
+          }
+          if (draft != null) {
+            deliver(requestId, draft, onLoaded);
+            // 原图本身不大，草图就是原图
+            if (draft.isFullResolution()) {
+              return;
+            }
+          }
+        }
+        preview = decode(imagePath, maxSize, cancelled);
+        if (preview == null) {
+          return;
+        }
+      }
+      deliver(requestId, preview, onLoaded);
+      // 只为真正查看的图片生成缩略图，预取的图片不占用解码屏幕上缩略图的线程
+      ThumbnailLoader.getInstance().deriveThumbnail(preview);
+    });
+  }
+
+  private void deliver(long requestId, PreviewImage preview, Consumer<PreviewImage> onLoaded) {
+    Platform.runLater(() -> {
+      if (generation.get() == requestId) {
+        onLoaded.accept(preview);
+      }
+    });
+  }
+
+  /**
+   * 查找缓存中按最近请求的尺寸解码的预览图
+   */
+  PreviewImage getCached(String imagePath) {
+    return getCached(imagePath, preferredSize);
+  }
+
+  /**
+   * 查找缓存中满足尺寸要求的预览图，原图总是满足要求
+   */
+  private PreviewImage getCached(String imagePath, int maxSize) {
+    var imageCache = ImageCache.getInstance();
+    Image original = imageCache.get(ImageCache.Key.original(imagePath));
+    if (original != null) {
+      return new PreviewImage(imagePath, original, ImageCache.Key.ORIGINAL,
+        (int) original.getWidth(), (int) original.getHeight());
+    }
+    if (maxSize == ImageCache.Key.ORIGINAL) {
+      return null;
+    }
+    Image scaled = imageCache.get(new ImageCache.Key(imagePath, maxSize));
+    Dimension sourceSize = getSourceSize(imagePath);
+    if (scaled == null || sourceSize == null) {
+      return null;
+    }
+    return new PreviewImage(imagePath, scaled, maxSize, sourceSize.width, sourceSize.height);
+  }
+
+  /**
+   * 获取已知的原图尺寸，只查询解码时记录下来的结果，不读取文件
+   *
+   * @return 原图尺寸，尚未记录时返回 null
+   */
+  public Dimension getSourceSize(String imagePath) {
+    synchronized (sourceSizes) {
+      return sourceSizes.get(imagePath);
+    }
+  }
+
+  /**
+   * 图片文件发生变化，丢弃记录的原图尺寸
+   */
+  public void forgetSourceSize(String imagePath) {
+    synchronized (sourceSizes) {
+      sourceSizes.remove(imagePath);
+    }
+  }
+
+  /**
+   * 记录其他途径（例如生成缩略图时读取的文件头）得到的原图尺寸
+   */
+  void recordSourceSize(String imagePath, int width, int height) {
+    if (width <= 0 || height <= 0) {
+      return;
+    }
+    synchronized (sourceSizes) {
+      sourceSizes.putIfAbsent(imagePath, new Dimension(width, height));
+    }
+  }
+
+  /**
+   * 如果预取环正在解码这张图片，等待其结果而不是重复解码
+   *
+   * @return 预取的图片，没有预取、尺寸不够或预取失败时返回 null
+   */
+  private PreviewImage awaitPrefetched(String imagePath, int maxSize) {
+    CompletableFuture<PreviewImage> prefetched = PreviewPrefetcher.getInstance().find(imagePath, maxSize);
+    if (prefetched == null) {
+      return null;
+    }
+    try {
+      return prefetched.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return null;
+    } catch (ExecutionException | CancellationException e) {
+      return null;
+    }
+  }
+
+  /**
+   * 解码预览图并放入缓存，同一张图片正在解码时共用其结果
+   *
+   * @param imagePath 图片路径
+   * @param maxSize   最长边的像素数，{@link ImageCache.Key#ORIGINAL} 表示原图
+   * @param cancelled 返回 true 时中止解码
+   * @return 预览图，文件不存在、解码失败或被取消时返回 null
+   */
+  PreviewImage decode(String imagePath, int maxSize, BooleanSupplier cancelled) {
+    return DecodeService.getInstance().decode(imagePath, maxSize, cancelled,
+      () -> decodeFile(imagePath, maxSize, cancelled));
+  }
+
+  private PreviewImage decodeFile(String imagePath, int maxSize, BooleanSupplier cancelled) {
+    // 用户点击缩略图查看图片，此时图片文件可能已经不在了
+    Path imageFile = Path.of(imagePath);
+    if (!Files.exists(imageFile) || cancelled.getAsBoolean()) {
+      return null;
+    }
+
+    // JavaFX 解码时不处理 EXIF 方向，解码后再转正，与缩略图的方向一致
+    var header = ExifUtils.isJpeg(imagePath) ? ExifUtils.readJpegHeader(imageFile) : ExifUtils.JpegHeader.NONE;
+    Dimension sourceSize = getSourceSize(imagePath);
+    if (sourceSize == null && header.width() > 0) {
+      sourceSize = new Dimension(header.orientedWidth(), header.orientedHeight());
+    } else if (sourceSize == null) {
+      sourceSize = ImageUtils.readImageSize(imageFile.toFile());
+    }
+    // 原图本身不超过要求的尺寸时直接解码原图，避免被放大；旋转不改变最长边
+    int effectiveSize = maxSize;
+    if (sourceSize == null || Math.max(sourceSize.width, sourceSize.height) <= maxSize) {
+      effectiveSize = ImageCache.Key.ORIGINAL;
+    }
+
+    try (InputStream fis = new CancellableInputStream(Files.newInputStream(imageFile), cancelled)) {
+      Image image = effectiveSize == ImageCache.Key.ORIGINAL
+        ? new Image(fis)
+        : new Image(fis, effectiveSize, effectiveSize, true, true);
+      if (image.isError()) {
+        if (!cancelled.getAsBoolean()) {
+          log.warn("Error decoding preview {}", imagePath, image.getException());
+        }
+        return null;
+      }
+
+      image = PixelUtils.orient(image, header.orientation());
+      if (sourceSize == null) {
+        sourceSize = new Dimension((int) image.getWidth(), (int) image.getHeight());
+      }
+      synchronized (sourceSizes) {
+        sourceSizes.put(imagePath, sourceSize);
+      }
+      ImageCache.getInstance().put(new ImageCache.Key(imagePath, effectiveSize), image);
+      return new PreviewImage(imagePath, image, effectiveSize, sourceSize.width, sourceSize.height);
+    } catch (IOException e) {
+      log.warn("Error reading preview {}", imagePath, e);
+      return null;
+    }
+  }
+
+  /**
+   * 每次读取前检查是否已取消，取消后抛出异常让解码器提前结束并释放缓冲区
+   */
+  private static class CancellableInputStream extends FilterInputStream {
+
+    private final BooleanSupplier cancelled;
+
+    CancellableInputStream(InputStream in, BooleanSupplier cancelled) {
+      super(in);
+      this.cancelled = cancelled;
+    }
+
+    private void checkCancelled() throws InterruptedIOException {
+      if (cancelled.getAsBoolean()) {
+        throw new InterruptedIOException("Preview loading cancelled");
+      }
+    }
+
+    @Override
+    public int read() throws IOException {
+      checkCancelled();
+      return super.read();
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      checkCancelled();
+      return super.read(b, off, len);
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      checkCancelled();
+      return super.skip(n);
+    }
+  }
+}
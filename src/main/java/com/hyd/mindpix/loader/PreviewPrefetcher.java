@@ -0,0 +1,173 @@
+package com.hyd.mindpix.loader;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.IntFunction;
+
+/**
+ * 预览图预取环：在当前图片前后各保留若干张已解码的预览图，连续翻页时直接命中。
+ * <p>
+ * 前后各预取多少张取决于最近的翻页方向，一直向后翻时几乎只预取后面的图片。
+ * 解码结果存放在 {@link ImageCache} 中，占用的内存由其字节预算统一限制，环本身不另设预算。
+ */
+public class PreviewPrefetcher {
+
+  /**
+   * 当前图片之外预取的图片数量（前后合计）
+   */
+  private static final int RING_SIZE = 6;
+
+  /**
+   * 翻页方向趋势的衰减系数，越大越依赖历史方向
+   */
+  private static final double TREND_DECAY = 0.7;
+
+  private static PreviewPrefetcher instance;
+
+  private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "preview-prefetch");
+    thread.setDaemon(true);
+    thread.setPriority(Thread.MIN_PRIORITY);
+    return thread;
+  });
+
+  /**
+   * 按与当前图片的距离排序，第一个是当前图片
+   */
+  private Map<String, Prefetch> ring = new LinkedHashMap<>();
+
+  /**
+   * 翻页方向趋势，-1 表示一直向前翻，1 表示一直向后翻
+   */
+  private double trend = 0;
+
+  public static synchronized PreviewPrefetcher getInstance() {
+    if (instance == null) {
+      instance = new PreviewPrefetcher();
+    }
+    return instance;
+  }
+
+  private PreviewPrefetcher() {
+  }
+
+  private static class Prefetch {
+
+    private final String imagePath;
+
+    private final int maxSize;
+
+    private final CompletableFuture<PreviewImage> future = new CompletableFuture<>();
+
+    private volatile boolean cancelled = false;
+
+    private Prefetch(String imagePath, int maxSize) {
+      this.imagePath = imagePath;
+      this.maxSize = maxSize;
+    }
+
+    private void cancel() {
+      cancelled = true;
+      future.cancel(false);
+    }
+
+    /**
+     * 预取的尺寸是否满足要求
+     */
+    private boolean covers(int requiredSize) {
+      return PreviewImage.covers(maxSize, requiredSize);
+    }
+  }
+
+  /**
+   * 当前图片发生变化
+   *
+   * @param index  当前图片的序号
+   * @param size   图片总数
+   * @param pathAt 根据序号获取图片路径，只在本方法内调用
+   * @param offset 本次移动的偏移量，用于判断翻页方向
+   */
+  public synchronized void navigate(int index, int size, IntFunction<String> pathAt, int offset) {
+    trend = trend * TREND_DECAY + Math.signum(offset) * (1 - TREND_DECAY);
+    int forward = (int) Math.round(RING_SIZE * (1 + trend) / 2);
+    forward = Math.max(1, Math.min(RING_SIZE - 1, forward));
+    int backward = RING_SIZE - forward;
+
+    List<String> wanted = new ArrayList<>();
+    wanted.add(pathAt.apply(index));
+    for (int distance = 1; distance <= Math.max(forward, backward); distance++) {
+      int next = index + distance;
+      int prev = index - distance;
+      if (trend >= 0) {
+        addIfInRange(wanted, next, distance <= forward, size, pathAt);
+        addIfInRange(wanted, prev, distance <= backward, size, pathAt);
+      } else {
+        addIfInRange(wanted, prev, distance <= backward, size, pathAt);
+        addIfInRange(wanted, next, distance <= forward, size, pathAt);
+      }
+    }
+
+    // 与预览使用相同的尺寸，尺寸变化后旧的预取结果不再使用
+    int maxSize = PreviewLoader.getInstance().getPreferredSize();
+    Map<String, Prefetch> newRing = new LinkedHashMap<>();
+    for (int i = 0; i < wanted.size(); i++) {
+      String imagePath = wanted.get(i);
+      Prefetch prefetch = ring.remove(imagePath);
+      if (prefetch != null && i > 0 && !prefetch.covers(maxSize)) {
+        prefetch.cancel();
+        prefetch = null;
+      }
+      if (prefetch == null && i > 0 && !isCached(imagePath, maxSize)) {
+        // 当前图片由 PreviewLoader 加载，这里只预取相邻的图片
+        prefetch = new Prefetch(imagePath, maxSize);
+        submit(prefetch);
+      }
+      if (prefetch != null) {
+        newRing.put(imagePath, prefetch);
+      }
+    }
+
+    // 离开预取范围的图片
+    ring.values().forEach(Prefetch::cancel);
+    ring = newRing;
+  }
+
+  private static void addIfInRange(List<String> wanted, int index, boolean enabled, int size, IntFunction<String> pathAt) {
+    if (enabled && index >= 0 && index < size) {
+      wanted.add(pathAt.apply(index));
+    }
+  }
+
+  private static boolean isCached(String imagePath, int maxSize) {
+    var imageCache = ImageCache.getInstance();
+    return imageCache.contains(ImageCache.Key.original(imagePath))
+      || (maxSize != ImageCache.Key.ORIGINAL && imageCache.contains(new ImageCache.Key(imagePath, maxSize)));
+  }
+
+  private void submit(Prefetch prefetch) {
+    executor.execute(() -> {
+      if (prefetch.cancelled) {
+        return;
+      }
+      PreviewImage preview = PreviewLoader.getInstance().decode(
+        prefetch.imagePath, prefetch.maxSize, () -> prefetch.cancelled);
+      prefetch.future.complete(preview);
+    });
+  }
+
+  /**
+   * 查找已预取或正在预取的图片
+   *
+   * @param maxSize 要求的尺寸
+   * @return 预取结果，不在预取环中或尺寸不够时返回 null；结果可能为 null（解码失败）或被取消
+   */
+  public synchronized CompletableFuture<PreviewImage> find(String imagePath, int maxSize) {
+    Prefetch prefetch = ring.get(imagePath);
+    return prefetch == null || !prefetch.covers(maxSize) ? null : prefetch.future;
+  }
+}
@@ -0,0 +1,359 @@
+package com.hyd.mindpix.loader;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 保存和恢复标签页的内容，存放在用户主目录的 .mind-pix/session 下。
+ * <p>
+ * 每个标签页一个文件，只有内容变化的标签页才重写；另有一个索引文件记录标签页的顺序、选中的标签页
+ * 和每个标签页中选中的图片，翻看图片时只重写很小的索引文件。
+ * 最后打开的文件夹的内容快照单独保存，用于启动时快速重新打开该文件夹。
+ * 文件使用紧凑的二进制格式，每个路径只保存与上一个路径不同的部分，同一文件夹中的图片基本只占文件名的长度。
+ * 写入先写临时文件再改名，中途退出不会留下写了一半的文件。
+ */
+@Slf4j
+public class SessionStore {
+
+  private static final int INDEX_MAGIC = 0x4D505349; // "MPSI"
+
+  private static final int TAB_MAGIC = 0x4D505354; // "MPST"
+
+  private static final int FOLDER_MAGIC = 0x4D505346; // "MPSF"
+
+  private static final int VERSION = 1;
+
+  private static final String INDEX_FILE = "session.bin";
+
+  private static final String FOLDER_FILE = "folder.bin";
+
+  private static SessionStore instance;
+
+  private final Path sessionDir;
+
+  private final ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "session-writer");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  /**
+   * 一个标签页的内容，读取会话时使用
+   *
+   * @param imagePaths  图片路径，按显示顺序排列
+   * @param activeIndex 选中图片的位置，没有选中时为 -1
+   */
+  public record TabState(String title, List<String> imagePaths, int activeIndex) {
+  }
+
+  /**
+   * 保存在索引文件中的标签页信息
+   *
+   * @param activeIndex 选中图片的位置，没有选中时为 -1
+   */
+  public record TabHeader(String title, int activeIndex) {
+  }
+
+  /**
+   * 保存在标签页文件中的图片列表
+   *
+   * @param imagePaths 图片路径，按显示顺序排列
+   */
+  public record TabContent(String title, List<String> imagePaths) {
+  }
+
+  /**
+   * @param tabs          全部标签页，按显示顺序排列
+   * @param selectedIndex 选中的标签页
+   */
+  public record Session(List<TabState> tabs, int selectedIndex) {
+  }
+
+  /**
+   * 文件的大小和最后修改时间，用于判断文件是否变化
+   */
+  public record FileStamp(long size, long modified) {
+  }
+
+  /**
+   * 最后打开的文件夹的内容快照，下次启动时与文件夹的实际内容对比，找出新增和修改的文件
+   *
+   * @param recursive 是否包含子文件夹
+   * @param files     图片路径及其大小和修改时间
+   */
+  public record FolderSnapshot(String folder, boolean recursive, Map<String, FileStamp> files) {
+
+    /**
+     * 读取每个文件的大小和修改时间生成快照，已经不存在的文件被忽略
+     */
+    public static FolderSnapshot of(String folder, boolean recursive, Collection<Path> paths) {
+      Map<String, FileStamp> files = new HashMap<>(paths.size() * 4 / 3 + 1);
+      for (Path path : paths) {
+        try {
+          BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+          files.put(path.toString(), new FileStamp(attributes.size(), attributes.lastModifiedTime().toMillis()));
+        } catch (IOException e) {
+          // 扫描之后被删除
+        }
+      }
+      return new FolderSnapshot(folder, recursive, files);
+    }
+  }
+
+  @FunctionalInterface
+  private interface Content {
+    void writeTo(DataOutputStream out) throws IOException;
+  }
+
+  public static synchronized SessionStore getInstance() {
+    if (instance == null) {
+      instance = new SessionStore(Path.of(System.getProperty("user.home"), ".mind-pix", "session"));
+    }
+    return instance;
+  }
+
+  SessionStore(Path sessionDir) {
+    this.sessionDir = sessionDir;
+  }
+
+  /**
+   * 读取上次保存的会话，读不到的标签页按空标签页处理
+   *
+   * @return 会话，从未保存过或索引损坏时返回 null
+   */
+  public Session load() {
+    Path indexFile = sessionDir.resolve(INDEX_FILE);
+    List<TabHeader> headers = new ArrayList<>();
+    int selectedIndex;
+    try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+      if (in.readInt() != INDEX_MAGIC || in.readInt() != VERSION) {
+        log.warn("Ignoring session index with unknown format: {}", indexFile);
+        return null;
+      }
+      selectedIndex = in.readInt();
+      int count = in.readInt();
+      for (int i = 0; i < count; i++) {
+        headers.add(new TabHeader(in.readUTF(), in.readInt()));
+      }
+    } catch (NoSuchFileException e) {
+      return null;
+    } catch (IOException e) {
+      log.warn("Error reading session index {}: {}", indexFile, e.toString());
+      return null;
+    }
+
+    List<TabState> tabs = new ArrayList<>(headers.size());
+    for (TabHeader header : headers) {
+      List<String> imagePaths = readTab(header.title());
+      int activeIndex = header.activeIndex() < imagePaths.size() ? header.activeIndex() : -1;
+      tabs.add(new TabState(header.title(), imagePaths, activeIndex));
+    }
+    return new Session(tabs, selectedIndex);
+  }
+
+  private List<String> readTab(String title) {
+    Path file = sessionDir.resolve(tabFileName(title));
+    try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+      if (in.readInt() != TAB_MAGIC || in.readInt() != VERSION) {
+        log.warn("Ignoring session tab with unknown format: {}", file);
+        return List.of();
+      }
+      int count = in.readInt();
+      List<String> imagePaths = new ArrayList<>(Math.min(count, 1 << 16));
+      String previous = "";
+      for (int i = 0; i < count; i++) {
+        int shared = in.readUnsignedShort();
+        previous = previous.substring(0, shared) + in.readUTF();
+        imagePaths.add(previous);
+      }
+      return imagePaths;
+    } catch (NoSuchFileException e) {
+      return List.of();
+    } catch (IOException | RuntimeException e) {
+      log.warn("Error reading session tab {}: {}", file, e.toString());
+      return List.of();
+    }
+  }
+
+  /**
+   * 读取文件夹的快照
+   *
+   * @return 快照，没有保存过该文件夹的快照时返回 null
+   */
+  public FolderSnapshot loadFolderSnapshot(String folder) {
+    Path file = sessionDir.resolve(FOLDER_FILE);
+    try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+      if (in.readInt() != FOLDER_MAGIC || in.readInt() != VERSION || !folder.equals(in.readUTF())) {
+        return null;
+      }
+      boolean recursive = in.readBoolean();
+      int count = in.readInt();
+      Map<String, FileStamp> files = new HashMap<>(Math.min(count, 1 << 16) * 4 / 3 + 1);
+      String previous = "";
+      for (int i = 0; i < count; i++) {
+        int shared = in.readUnsignedShort();
+        previous = previous.substring(0, shared) + in.readUTF();
+        files.put(previous, new FileStamp(in.readLong(), in.readLong()));
+      }
+      return new FolderSnapshot(folder, recursive, files);
+    } catch (NoSuchFileException e) {
+      return null;
+    } catch (IOException | RuntimeException e) {
+      log.warn("Error reading folder snapshot {}: {}", file, e.toString());
+      return null;
+    }
+  }
+
+  /**
+   * 在后台保存文件夹的快照，替换之前的快照
+   */
+  public void saveFolderSnapshot(FolderSnapshot snapshot) {
+    writer.execute(() -> {
+      try {
+        Files.createDirectories(sessionDir);
+        writeAtomically(sessionDir.resolve(FOLDER_FILE), out -> {
+          out.writeInt(FOLDER_MAGIC);
+          out.writeInt(VERSION);
+          out.writeUTF(snapshot.folder());
+          out.writeBoolean(snapshot.recursive());
+          out.writeInt(snapshot.files().size());
+          // 按路径排序后相邻路径的公共前缀最长
+          String previous = "";
+          for (var entry : new TreeMap<>(snapshot.files()).entrySet()) {
+            String path = entry.getKey();
+            int shared = Math.min(commonPrefixLength(previous, path), 0xFFFF);
+            out.writeShort(shared);
+            out.writeUTF(path.substring(shared));
+            out.writeLong(entry.getValue().size());
+            out.writeLong(entry.getValue().modified());
+            previous = path;
+          }
+        });
+      } catch (IOException e) {
+        log.warn("Error saving folder snapshot of {}: {}", snapshot.folder(), e.toString());
+      }
+    });
+  }
+
+  /**
+   * 在后台保存会话，按调用顺序写入
+   *
+   * @param tabs          全部标签页，按显示顺序排列
+   * @param selectedIndex 选中的标签页
+   * @param changedTabs   内容有变化的标签页，其余标签页的文件保持不变
+   */
+  public void saveAsync(List<TabHeader> tabs, int selectedIndex, List<TabContent> changedTabs) {
+    writer.execute(() -> write(tabs, selectedIndex, changedTabs));
+  }
+
+  /**
+   * 保存会话并等待写入完成，包括之前提交的后台保存，用于退出时
+   */
+  public void save(List<TabHeader> tabs, int selectedIndex, List<TabContent> changedTabs) {
+    try {
+      writer.submit(() -> write(tabs, selectedIndex, changedTabs)).get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      log.warn("Error saving session", e.getCause());
+    }
+  }
+
+  private void write(List<TabHeader> tabs, int selectedIndex, List<TabContent> changedTabs) {
+    try {
+      Files.createDirectories(sessionDir);
+      for (TabContent tab : changedTabs) {
+        writeAtomically(sessionDir.resolve(tabFileName(tab.title())), out -> writeTab(out, tab));
+      }
+      writeAtomically(sessionDir.resolve(INDEX_FILE), out -> {
+        out.writeInt(INDEX_MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(selectedIndex);
+        out.writeInt(tabs.size());
+        for (TabHeader tab : tabs) {
+          out.writeUTF(tab.title());
+          out.writeInt(tab.activeIndex());
+        }
+      });
+      deleteClosedTabs(tabs.stream().map(TabHeader::title).toList());
+    } catch (IOException e) {
+      log.warn("Error saving session to {}: {}", sessionDir, e.toString());
+    }
+  }
+
+  private static void writeTab(DataOutputStream out, TabContent tab) throws IOException {
+    out.writeInt(TAB_MAGIC);
+    out.writeInt(VERSION);
+    out.writeInt(tab.imagePaths().size());
+    String previous = "";
+    for (String path : tab.imagePaths()) {
+      int shared = Math.min(commonPrefixLength(previous, path), 0xFFFF);
+      out.writeShort(shared);
+      out.writeUTF(path.substring(shared));
+      previous = path;
+    }
+  }
+
+  private static int commonPrefixLength(String a, String b) {
+    int length = Math.min(a.length(), b.length());
+    int i = 0;
+    while (i < length && a.charAt(i) == b.charAt(i)) {
+      i++;
+    }
+    return i;
+  }
+
+  private static void writeAtomically(Path file, Content content) throws IOException {
+    Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+    try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+      content.writeTo(out);
+    }
+    Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * 删除已关闭的标签页留下的文件
+   */
+  private void deleteClosedTabs(List<String> titles) throws IOException {
+    Set<String> kept = new HashSet<>();
+    titles.forEach(title -> kept.add(tabFileName(title)));
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(sessionDir, "tab-*.bin")) {
+      for (Path file : stream) {
+        if (!kept.contains(file.getFileName().toString())) {
+          Files.deleteIfExists(file);
+        }
+      }
+    }
+  }
+
+  /**
+   * 标题可能包含不能用在文件名中的字符，按 UTF-8 字节的十六进制命名
+   */
+  private static String tabFileName(String title) {
+    return "tab-" + HexFormat.of().formatHex(title.getBytes(StandardCharsets.UTF_8)) + ".bin";
+  }
+}
@@ -0,0 +1,16 @@
+package com.hyd.mindpix.loader;
+
+import java.io.IOException;
+
+/**
+ * 缩略图加载回调，在解码线程中调用
+ */
+public interface ThumbnailCallback {
+
+  /**
+   * 缩略图已经存入 {@link ThumbnailStore}
+   */
+  void onLoaded(String imagePath);
+
+  void onFailed(String imagePath, IOException e);
+}
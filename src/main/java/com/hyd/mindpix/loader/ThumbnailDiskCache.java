@@ -0,0 +1,429 @@
+package com.hyd.mindpix.loader;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * 缩略图磁盘缓存，每个文件夹对应一个打包文件，存放在用户主目录的 .mind-pix/thumbnails 下。
+ * <p>
+ * 条目以图片绝对路径、文件大小和最后修改时间为键，原图变化后自动失效；
+ * 打包文件只追加写入，打开时通过内存映射读取，映射的长度有上限，超出部分直接从文件读取。
+ * 原图修改后旧记录成为无效数据，打开打包文件时无效数据过多则重写一遍，只保留有效记录。
+ * <p>
+ * 打开的打包文件有引用计数，被挤出的打包文件等到没有线程使用后才关闭。
+ */
+@Slf4j
+public class ThumbnailDiskCache {
+
+  private static final int MAGIC = 0x4D505443; // "MPTC"
+
+  private static final int VERSION = 1;
+
+  private static final int HEADER_SIZE = 8;
+
+  private static final byte FORMAT_JPEG = 0;
+
+  private static final byte FORMAT_PNG = 1;
+
+  /**
+   * 同时保持打开的打包文件数量，递归打开文件夹时每个子文件夹一个打包文件
+   */
+  private static final int MAX_OPEN_PACKS = 16;
+
+  /**
+   * 内存映射的最大长度，超出部分通过文件通道读取
+   */
+  private static final long MAX_MAPPED_BYTES = 256L * 1024 * 1024;
+
+  /**
+   * 无效数据超过这个大小、并且超过文件的一半时重写打包文件
+   */
+  private static final long COMPACT_MIN_DEAD_BYTES = 4L * 1024 * 1024;
+
+  private static ThumbnailDiskCache instance;
+
+  private final Path cacheDir;
+
+  private final Map<Path, FolderPack> openPacks = new LinkedHashMap<>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Path, FolderPack> eldest) {
+      if (size() > MAX_OPEN_PACKS) {
+        retire(eldest.getValue());
+        return true;
+      }
+      return false;
+    }
+  };
+
+  public static synchronized ThumbnailDiskCache getInstance() {
+    if (instance == null) {
+      instance = new ThumbnailDiskCache(Path.of(System.getProperty("user.home"), ".mind-pix", "thumbnails"));
+    }
+    return instance;
+  }
+
+  private ThumbnailDiskCache(Path cacheDir) {
+    this.cacheDir = cacheDir;
+  }
+
+  /**
+   * 读取缓存的缩略图，不解码
+   *
+   * @param imagePath 原图路径
+   * @return 编码后的缩略图，缓存不存在或已失效时返回 null
+   */
+  public byte[] get(Path imagePath) {
+    FolderPack pack = null;
+    try {
+      BasicFileAttributes attributes = Files.readAttributes(imagePath, BasicFileAttributes.class);
+      pack = acquirePack(imagePath.toAbsolutePath().getParent());
+      return pack == null ? null : pack.read(imagePath.toAbsolutePath().toString(),
+        attributes.size(), attributes.lastModifiedTime().toMillis());
+    } catch (IOException e) {
+      log.warn("Error reading thumbnail cache for {}", imagePath, e);
+      return null;
+    } finally {
+      releasePack(pack);
+    }
+  }
+
+  /**
+   * 写入缩略图缓存，失败时只记录日志
+   *
+   * @param imagePath 原图路径
+   * @param thumbnail 由 {@link #encode(BufferedImage)} 编码的缩略图
+   */
+  public void put(Path imagePath, byte[] thumbnail) {
+    FolderPack pack = null;
+    try {
+      BasicFileAttributes attributes = Files.readAttributes(imagePath, BasicFileAttributes.class);
+      pack = acquirePack(imagePath.toAbsolutePath().getParent());
+      if (pack != null) {
+        pack.write(imagePath.toAbsolutePath().toString(),
+          attributes.size(), attributes.lastModifiedTime().toMillis(), thumbnail);
+      }
+    } catch (IOException e) {
+      log.warn("Error writing thumbnail cache for {}", imagePath, e);
+    } finally {
+      releasePack(pack);
+    }
+  }
+
+  /**
+   * 取得文件夹的打包文件并增加引用计数，用完后必须调用 {@link #releasePack(FolderPack)}
+   */
+  private synchronized FolderPack acquirePack(Path folder) {
+    if (folder == null) {
+      return null;
+    }
+    FolderPack pack = openPacks.get(folder);
+    if (pack == null) {
+      try {
+        Files.createDirectories(cacheDir);
+        String fileName = UUID.nameUUIDFromBytes(folder.toString().getBytes(StandardCharsets.UTF_8)) + ".pack";
+        pack = new FolderPack(cacheDir.resolve(fileName));
+        openPacks.put(folder, pack);
+      } catch (IOException | RuntimeException e) {
+        log.warn("Error opening thumbnail cache for {}", folder, e);
+        return null;
+      }
+    }
+    pack.users++;
+    return pack;
+  }
+
+  private synchronized void releasePack(FolderPack pack) {
+    if (pack != null && --pack.users == 0 && pack.retired) {
+      pack.close();
+    }
+  }
+
+  /**
+   * 打包文件被挤出后不再分配给新的使用者，正在使用的线程用完后关闭
+   */
+  private void retire(FolderPack pack) {
+    pack.retired = true;
+    if (pack.users == 0) {
+      pack.close();
+    }
+  }
+
+  /**
+   * 编码缩略图，有透明度时使用 PNG，否则使用 JPEG
+   */
+  public static byte[] encode(BufferedImage image) throws IOException {
+    var out = new ByteArrayOutputStream(16 * 1024);
+    if (!ImageIO.write(image, image.getColorModel().hasAlpha() ? "png" : "jpg", out)) {
+      throw new IOException("No image writer for thumbnail");
+    }
+    return out.toByteArray();
+  }
+
+  private static boolean isPng(byte[] data) {
+    return data.length > 0 && (data[0] & 0xFF) == 0x89;
+  }
+
+  private record Entry(long size, long lastModified, long offset, int length) {
+  }
+
+  /**
+   * 单个文件夹的打包文件。
+   * 记录格式：[int 记录长度][short 路径长度][路径][long 文件大小][long 修改时间][byte 格式][int 数据长度][数据]
+   */
+  private static class FolderPack {
+
+    /**
+     * 记录中除路径和数据以外的字节数
+     */
+    private static final int RECORD_OVERHEAD = Integer.BYTES + Short.BYTES + Long.BYTES * 2 + 1 + Integer.BYTES;
+
+    private final Path packFile;
+
+    private FileChannel channel;
+
+    private MappedByteBuffer mapped;
+
+    private Map<String, Entry> index = new HashMap<>();
+
+    private long endOffset;
+
+    /**
+     * 被后写入的同路径记录取代的字节数
+     */
+    private long deadBytes = 0;
+
+    /**
+     * 正在使用的线程数，由 {@link ThumbnailDiskCache} 在锁内维护
+     */
+    private int users = 0;
+
+    private boolean retired = false;
+
+    FolderPack(Path packFile) throws IOException {
+      this.packFile = packFile;
+      this.channel = openChannel(packFile);
+
+      long fileSize = channel.size();
+      if (fileSize < HEADER_SIZE || !validHeader()) {
+        channel.truncate(0);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION).flip();
+        channel.write(header, 0);
+        fileSize = HEADER_SIZE;
+      }
+
+      this.endOffset = loadIndex(fileSize);
+      if (endOffset < fileSize) {
+        // 末尾存在写了一半的记录（比如程序被强制退出），截掉
+        channel.truncate(endOffset);
+      }
+      if (deadBytes > COMPACT_MIN_DEAD_BYTES && deadBytes * 2 > endOffset) {
+        compact();
+      }
+      // 映射之后在某些系统上无法截断或替换文件，因此放在最后
+      this.mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(endOffset, MAX_MAPPED_BYTES));
+    }
+
+    private static FileChannel openChannel(Path packFile) throws IOException {
+      return FileChannel.open(packFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    private boolean validHeader() throws IOException {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+      channel.read(header, 0);
+      header.flip();
+      return header.getInt() == MAGIC && header.getInt() == VERSION;
+    }
+
+    /**
+     * 顺序读取全部记录建立索引，不读取缩略图数据
+     *
+     * @return 最后一条完整记录的结束位置
+     */
+    private long loadIndex(long fileSize) throws IOException {
+      long position = HEADER_SIZE;
+      // 不关闭这个流，否则会关闭文件通道
+      var in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel.position(position)), 64 * 1024));
+      try {
+        while (position + Integer.BYTES <= fileSize) {
+          int recordLength = in.readInt();
+          long recordStart = position + Integer.BYTES;
+          if (recordLength <= 0 || recordStart + recordLength > fileSize) {
+            break;
+          }
+          int pathLength = in.readUnsignedShort();
+          byte[] pathBytes = in.readNBytes(pathLength);
+          long size = in.readLong();
+          long lastModified = in.readLong();
+          in.readByte(); // 格式标记，读取时由 ImageIO 自动识别
+          int dataLength = in.readInt();
+          int headerLength = RECORD_OVERHEAD - Integer.BYTES + pathLength;
+          if (pathBytes.length != pathLength || dataLength < 0 || headerLength + (long) dataLength != recordLength) {
+            break;
+          }
+          in.skipNBytes(dataLength);
+          // 同一路径后写入的记录覆盖先前的记录
+          Entry previous = index.put(new String(pathBytes, StandardCharsets.UTF_8),
+            new Entry(size, lastModified, recordStart + headerLength, dataLength));
+          if (previous != null) {
+            deadBytes += RECORD_OVERHEAD + pathLength + previous.length();
+          }
+          position = recordStart + recordLength;
+        }
+      } catch (EOFException e) {
+        // 最后一条记录不完整
+      }
+      return position;
+    }
+
+    /**
+     * 只保留有效记录，写入临时文件后替换原文件
+     */
+    private void compact() throws IOException {
+      Path temp = packFile.resolveSibling(packFile.getFileName() + ".tmp");
+      Map<String, Entry> compacted = new HashMap<>(index.size() * 4 / 3 + 1);
+      long before = endOffset;
+      long position = HEADER_SIZE;
+      try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING)) {
+        writeFully(out, ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION).flip(), 0);
+        for (var item : index.entrySet()) {
+          Entry entry = item.getValue();
+          byte[] data = new byte[entry.length()];
+          if (!readFully(channel, ByteBuffer.wrap(data), entry.offset())) {
+            continue;
+          }
+          ByteBuffer record = encodeRecord(item.getKey(), entry.size(), entry.lastModified(), data);
+          int recordBytes = record.remaining();
+          writeFully(out, record, position);
+          position += recordBytes;
+          compacted.put(item.getKey(), new Entry(entry.size(), entry.lastModified(), position - data.length, data.length));
+        }
+        out.force(false);
+      } catch (IOException e) {
+        log.warn("Error compacting thumbnail cache {}", packFile, e);
+        deleteQuietly(temp);
+        return;
+      }
+
+      try {
+        channel.close();
+        Files.move(temp, packFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        index = compacted;
+        endOffset = position;
+        deadBytes = 0;
+        log.info("Compacted thumbnail cache {}: {} -> {} bytes", packFile, before, position);
+      } catch (IOException e) {
+        // 原文件没有被替换，继续使用
+        log.warn("Error replacing thumbnail cache {}", packFile, e);
+        deleteQuietly(temp);
+      }
+      channel = openChannel(packFile);
+    }
+
+    byte[] read(String imagePath, long size, long lastModified) throws IOException {
+      Entry entry;
+      synchronized (this) {
+        entry = index.get(imagePath);
+      }
+      if (entry == null || entry.size() != size || entry.lastModified() != lastModified) {
+        return null;
+      }
+
+      byte[] data = new byte[entry.length()];
+      if (entry.offset() + entry.length() <= mapped.limit()) {
+        mapped.get((int) entry.offset(), data);
+      } else if (!readFully(channel, ByteBuffer.wrap(data), entry.offset())) {
+        // 本次打开之后追加的记录，或超出映射范围的记录
+        return null;
+      }
+      return data;
+    }
+
+    void write(String imagePath, long size, long lastModified, byte[] data) throws IOException {
+      ByteBuffer record = encodeRecord(imagePath, size, lastModified, data);
+      int recordBytes = record.remaining();
+
+      synchronized (this) {
+        long recordOffset = endOffset;
+        writeFully(channel, record, recordOffset);
+        endOffset = recordOffset + recordBytes;
+        Entry previous = index.put(imagePath, new Entry(size, lastModified, endOffset - data.length, data.length));
+        if (previous != null) {
+          deadBytes += recordBytes - data.length + previous.length();
+        }
+      }
+    }
+
+    private static ByteBuffer encodeRecord(String imagePath, long size, long lastModified, byte[] data) {
+      byte format = isPng(data) ? FORMAT_PNG : FORMAT_JPEG;
+      byte[] pathBytes = imagePath.getBytes(StandardCharsets.UTF_8);
+      int recordLength = RECORD_OVERHEAD - Integer.BYTES + pathBytes.length + data.length;
+      return ByteBuffer.allocate(Integer.BYTES + recordLength)
+        .putInt(recordLength)
+        .putShort((short) pathBytes.length)
+        .put(pathBytes)
+        .putLong(size)
+        .putLong(lastModified)
+        .put(format)
+        .putInt(data.length)
+        .put(data)
+        .flip();
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long offset) throws IOException {
+      long start = offset - buffer.position();
+      while (buffer.hasRemaining()) {
+        channel.write(buffer, start + buffer.position());
+      }
+    }
+
+    /**
+     * @return false 表示文件在读满之前就结束了
+     */
+    private static boolean readFully(FileChannel channel, ByteBuffer buffer, long offset) throws IOException {
+      while (buffer.hasRemaining()) {
+        if (channel.read(buffer, offset + buffer.position()) < 0) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private static void deleteQuietly(Path file) {
+      try {
+        Files.deleteIfExists(file);
+      } catch (IOException e) {
+        log.debug("Error deleting {}: {}", file, e.toString());
+      }
+    }
+
+    void close() {
+      try {
+        channel.close();
+      } catch (IOException e) {
+        log.warn("Error closing thumbnail cache", e);
+      }
+    }
+  }
+}
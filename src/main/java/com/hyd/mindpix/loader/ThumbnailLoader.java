@@ -0,0 +1,317 @@
+package com.hyd.mindpix.loader;
+
+import com.hyd.mindpix.EventDispatcher;
+import com.hyd.mindpix.Events.LoadingImagesEvent;
+import com.hyd.mindpix.MindPixConfig;
+import com.hyd.mindpix.MindPixMain;
+import com.hyd.mindpix.utils.ExifUtils;
+import com.hyd.mindpix.utils.ImageUtils;
+import com.hyd.mindpix.utils.PixelUtils;
+import javafx.scene.image.Image;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.imageio.ImageIO;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+/**
+ * 缩略图解码引擎：固定大小的工作线程池，每个工作线程从 {@link LoadingSession} 中按优先级领取图片，
+ * 同时在解码的图片数量不超过线程数，没有预先排队的解码任务（背压）。
+ * 每次打开文件夹对应一个 {@link LoadingSession}，可单独取消。
+ * <p>
+ * 加载的结果是 {@link ThumbnailStore} 中编码后的缩略图，只有显示在屏幕上的缩略图才通过
+ * {@link #inflate(String, BooleanSupplier, Consumer)} 解码成图片。
+ */
+@Slf4j
+public class ThumbnailLoader {
+
+  public static final int THUMBNAIL_SIZE = 180;
+
+  /**
+   * 内嵌缩略图最长边至少要达到的像素数，常见相机的 160px 缩略图可以直接使用
+   */
+  private static final int MIN_EMBEDDED_THUMBNAIL_SIZE = 160;
+
+  private static ThumbnailLoader instance;
+
+  private final int workerCount;
+
+  private final ThreadPoolExecutor workers;
+
+  /**
+   * 解码屏幕上的缩略图，与批量加载分开，滚动时不必排在整个文件夹之后
+   */
+  private final ExecutorService inflater;
+
+  public static synchronized ThumbnailLoader getInstance() {
+    if (instance == null) {
+      instance = new ThumbnailLoader(Runtime.getRuntime().availableProcessors());
+    }
+    return instance;
+  }
+
+  private ThumbnailLoader(int workerCount) {
+    var threadCounter = new AtomicInteger();
+    this.workerCount = workerCount;
+    // 队列中只有各个会话的领取任务（每个会话最多 workerCount 个），不会无限增长
+    this.workers = new ThreadPoolExecutor(
+      workerCount, workerCount, 0L, TimeUnit.MILLISECONDS,
+      new LinkedBlockingQueue<>(),
+      runnable -> {
+        Thread thread = new Thread(runnable, "thumbnail-worker-" + threadCounter.incrementAndGet());
+        thread.setDaemon(true);
+        thread.setPriority(Thread.NORM_PRIORITY - 1);
+        return thread;
+      });
+    this.inflater = Executors.newFixedThreadPool(2, runnable -> {
+      Thread thread = new Thread(runnable, "thumbnail-inflater-" + threadCounter.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    log.info("Thumbnail loader started with {} workers", workerCount);
+  }
+
+  /**
+   * 异步加载一个文件夹中的所有缩略图
+   *
+   * @param folder     文件夹绝对路径，用于 {@link LoadingImagesEvent.Started} 事件
+   * @param imagePaths 要加载的图片路径，未设置优先级时按此顺序处理
+   * @param callback   回调，在工作线程中执行
+   * @return 本次加载的会话，用于取消和调整优先级
+   */
+  public LoadingSession load(String folder, List<String> imagePaths, ThumbnailCallback callback) {
+    LoadingSession session = open(folder, callback);
+    session.addImages(imagePaths);
+    session.finishAdding();
+    return session;
+  }
+
+  /**
+   * 开始一次加载会话，图片通过 {@link LoadingSession#addImages(List)} 陆续加入，
+   * 全部加入后调用 {@link LoadingSession#finishAdding()}
+   *
+   * @param folder   文件夹绝对路径，用于 {@link LoadingImagesEvent.Started} 事件
+   * @param callback 回调，在工作线程中执行
+   * @return 本次加载的会话，用于加入图片、取消和调整优先级
+   */
+  public LoadingSession open(String folder, ThumbnailCallback callback) {
+    var session = newSession(folder, true, callback);
+
+    Thread.startVirtualThread(() -> {
+      MindPixMain.publish(new LoadingImagesEvent.Started(session.getId(), folder));
+      try {
+        session.awaitCompletion();
+        log.debug("Image cache after loading {}: {}", folder, ImageCache.getInstance().stats());
+        log.debug("Thumbnail store after loading {}: {}", folder, ThumbnailStore.getInstance().stats());
+        log.debug("Event dispatcher after loading {}: {}", folder, EventDispatcher.getInstance().stats());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } finally {
+        // 被取消的会话同样发布，界面根据编号判断是否已被新的会话取代
+        MindPixMain.publish(new LoadingImagesEvent.Finished(session.getId()));
+      }
+    });
+    return session;
+  }
+
+  /**
+   * 加载一组不一定属于同一个文件夹的缩略图（例如恢复的标签页），不发布加载事件
+   *
+   * @param imagePaths 要加载的图片路径，未设置优先级时按此顺序处理
+   * @param callback   回调，在工作线程中执行
+   * @return 本次加载的会话
+   */
+  public LoadingSession load(List<String> imagePaths, ThumbnailCallback callback) {
+    return refresh(null, imagePaths, callback);
+  }
+
+  /**
+   * 重新加载部分缩略图（例如文件夹中新增或修改的文件），不发布加载事件
+   *
+   * @param folder     图片所在的文件夹
+   * @param imagePaths 要加载的图片路径
+   * @param callback   回调，在工作线程中执行
+   * @return 本次加载的会话
+   */
+  public LoadingSession refresh(String folder, List<String> imagePaths, ThumbnailCallback callback) {
+    var session = newSession(folder, false, callback);
+    session.addImages(imagePaths);
+    session.finishAdding();
+    return session;
+  }
+
+  private LoadingSession newSession(String folder, boolean reportingProgress, ThumbnailCallback callback) {
+    return new LoadingSession(folder, workerCount, reportingProgress, (session, count) -> {
+      for (int i = 0; i < count; i++) {
+        workers.execute(() -> drain(session, callback));
+      }
+    });
+  }
+
+  private void drain(LoadingSession session, ThumbnailCallback callback) {
+    String imagePath;
+    while ((imagePath = session.pollNext()) != null) {
+      runJob(session, imagePath, callback);
+    }
+  }
+
+  private void runJob(LoadingSession session, String imagePath, ThumbnailCallback callback) {
+    if (session.isCancelled()) {
+      session.skip();
+      return;
+    }
+    try {
+      loadThumbnail(imagePath, session::isCancelled);
+      if (!session.isCancelled()) {
+        callback.onLoaded(imagePath);
+      }
+    } catch (IOException e) {
+      if (!session.isCancelled()) {
+        callback.onFailed(imagePath, e);
+      }
+    } catch (RuntimeException e) {
+      log.error("Error loading thumbnail {}", imagePath, e);
+    } finally {
+      int current = session.complete();
+      if (!session.isCancelled() && session.isReportingProgress()) {
+        // 扫描期间总数还在增长，只报告完成数，否则进度会倒退
+        int total = session.isAddingFinished() ? session.getTotal() : -1;
+        MindPixMain.publish(new LoadingImagesEvent.Progress(session.getId(), current, total));
+      }
+    }
+  }
+
+  /**
+   * 在后台把缩略图解码成图片，缩略图已从 {@link ThumbnailStore} 中淘汰时重新加载
+   *
+   * @param imagePath  图片路径
+   * @param wanted     开始解码前检查，返回 false 时放弃（例如单元格已经滚出屏幕）
+   * @param onInflated 解码成功时在解码线程中调用
+   */
+  public void inflate(String imagePath, BooleanSupplier wanted, Consumer<Image> onInflated) {
+    inflater.execute(() -> {
+      if (!wanted.getAsBoolean()) {
+        return;
+      }
+      try {
+        loadThumbnail(imagePath, () -> !wanted.getAsBoolean());
+      } catch (IOException e) {
+        log.debug("Error reloading thumbnail {}: {}", imagePath, e.toString());
+        return;
+      }
+      Image image = inflate(imagePath);
+      if (image != null) {
+        onInflated.accept(image);
+      }
+    });
+  }
+
+  /**
+   * 把 {@link ThumbnailStore} 中的缩略图解码成图片，可在任意线程中调用
+   *
+   * @return 缩略图尚未加载或无法解码时返回 null
+   */
+  public Image inflate(String imagePath) {
+    byte[] encoded = ThumbnailStore.getInstance().get(imagePath);
+    if (encoded == null) {
+      return null;
+    }
+    try {
+      // ImageIO.read 会关闭传入的流；使用内存缓存，不创建临时文件
+      BufferedImage image = ImageIO.read(new MemoryCacheImageInputStream(new ByteArrayInputStream(encoded)));
+      return image == null ? null : PixelUtils.toFXImage(image);
+    } catch (IOException e) {
+      log.debug("Error inflating thumbnail {}: {}", imagePath, e.toString());
+      return null;
+    }
+  }
+
+  private void loadThumbnail(String imagePath, BooleanSupplier cancelled) throws IOException {
+    var store = ThumbnailStore.getInstance();
+    if (!store.contains(imagePath)) {
+      store.put(imagePath, encodeThumbnail(imagePath, cancelled));
+    }
+  }
+
+  /**
+   * 用已经解码的预览图生成缩略图，在后台执行，缩略图已存在时什么也不做
+   */
+  void deriveThumbnail(PreviewImage preview) {
+    if (ThumbnailStore.getInstance().contains(preview.imagePath())) {
+      return;
+    }
+    inflater.execute(() -> {
+      String imagePath = preview.imagePath();
+      if (ThumbnailStore.getInstance().contains(imagePath)) {
+        return;
+      }
+      try {
+        // 预览图已经转正
+        ThumbnailStore.getInstance().put(imagePath, encodeAndCache(imagePath,
+          PixelUtils.resize(preview.image(), THUMBNAIL_SIZE, THUMBNAIL_SIZE)));
+      } catch (IOException e) {
+        log.debug("Error deriving thumbnail {}: {}", imagePath, e.toString());
+      }
+    });
+  }
+
+  /**
+   * 取得编码后的缩略图：磁盘缓存中有时直接使用，不解码；已有解码好的预览图时由预览图缩小；
+   * 否则解码原图，缩放后编码并写入磁盘缓存
+   *
+   * @param cancelled 返回 true 时停止等待预览图的解码，并放弃生成
+   */
+  private byte[] encodeThumbnail(String imagePath, BooleanSupplier cancelled) throws IOException {
+    Path path = Path.of(imagePath);
+    byte[] cached = ThumbnailDiskCache.getInstance().get(path);
+    if (cached != null) {
+      return cached;
+    }
+
+    var header = readHeader(imagePath);
+    // 顺便记下原图尺寸，预览时可以先用缩略图占位而不必等待解码
+    PreviewLoader.getInstance().recordSourceSize(imagePath, header.orientedWidth(), header.orientedHeight());
+
+    // 即将预览的图片直接按预览尺寸解码一次，预览和缩略图共用
+    var decodeService = DecodeService.getInstance();
+    PreviewImage preview = decodeService.findDecoded(imagePath, cancelled);
+    if (preview == null && decodeService.isPreviewExpected(imagePath)) {
+      var previewLoader = PreviewLoader.getInstance();
+      preview = previewLoader.decode(imagePath, previewLoader.getPreferredSize(), cancelled);
+    }
+    if (preview != null) {
+      return encodeAndCache(imagePath, PixelUtils.resize(preview.image(), THUMBNAIL_SIZE, THUMBNAIL_SIZE));
+    }
+    if (cancelled.getAsBoolean()) {
+      throw new InterruptedIOException("Cancelled loading thumbnail " + imagePath);
+    }
+
+    BufferedImage image = null;
+    if (MindPixConfig.getInstance().isUseEmbeddedThumbnail()) {
+      image = header.decodeThumbnail(MIN_EMBEDDED_THUMBNAIL_SIZE);
+    }
+    if (image == null) {
+      image = ImageUtils.readSubsampled(path.toFile(), THUMBNAIL_SIZE, THUMBNAIL_SIZE);
+    }
+    return encodeAndCache(imagePath, PixelUtils.resize(image, THUMBNAIL_SIZE, THUMBNAIL_SIZE, header.orientation()));
+  }
+
+  private static ExifUtils.JpegHeader readHeader(String imagePath) throws IOException {
+    return ExifUtils.isJpeg(imagePath) ? ExifUtils.readJpegHeader(Path.of(imagePath)) : ExifUtils.JpegHeader.NONE;
+  }
+
+  private static byte[] encodeAndCache(String imagePath, PixelUtils.Pixels thumbnail) throws IOException {
+    byte[] encoded = ThumbnailDiskCache.encode(thumbnail.asBufferedImage());
+    ThumbnailDiskCache.getInstance().put(Path.of(imagePath), encoded);
+    return encoded;
+  }
+}
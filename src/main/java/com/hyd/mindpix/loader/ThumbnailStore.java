@@ -0,0 +1,122 @@
+package com.hyd.mindpix.loader;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 缩略图的紧凑存储：只保存编码后的缩略图（与磁盘缓存相同的 JPEG 或 PNG 字节，通常不到 10KB），
+ * 依次追加到堆外的直接内存块中，堆上只有每个条目的位置，占用与图片数量基本无关。
+ * 需要显示时再由 {@link ThumbnailLoader#inflate(String)} 解码成图片。
+ * <p>
+ * 内存块用满上限后，最早的内存块被整块清空复用，其中的条目需要重新从磁盘缓存读取。
+ */
+@Slf4j
+public class ThumbnailStore {
+
+  private static final int CHUNK_SIZE = 8 * 1024 * 1024;
+
+  /**
+   * 内存块数量上限，共 256MB，大约可以存放两三万张缩略图
+   */
+  private static final int MAX_CHUNKS = 32;
+
+  private static ThumbnailStore instance;
+
+  /**
+   * 内存块，最早分配的在前
+   */
+  private final Deque<Chunk> chunks = new ArrayDeque<>();
+
+  private final Map<String, Slot> slots = new HashMap<>();
+
+  private long evictions = 0;
+
+  public static synchronized ThumbnailStore getInstance() {
+    if (instance == null) {
+      instance = new ThumbnailStore();
+    }
+    return instance;
+  }
+
+  private ThumbnailStore() {
+  }
+
+  private static class Chunk {
+
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(CHUNK_SIZE);
+
+    private int used = 0;
+  }
+
+  private record Slot(Chunk chunk, int offset, int length) {
+  }
+
+  public synchronized boolean contains(String imagePath) {
+    return slots.containsKey(imagePath);
+  }
+
+  /**
+   * 保存编码后的缩略图，同一图片的旧条目被替换
+   */
+  public synchronized void put(String imagePath, byte[] encoded) {
+    if (encoded.length > CHUNK_SIZE) {
+      return;
+    }
+    Chunk chunk = chunks.peekLast();
+    if (chunk == null || chunk.used + encoded.length > CHUNK_SIZE) {
+      chunk = nextChunk();
+    }
+    chunk.buffer.put(chunk.used, encoded);
+    slots.put(imagePath, new Slot(chunk, chunk.used, encoded.length));
+    chunk.used += encoded.length;
+  }
+
+  /**
+   * 读取编码后的缩略图
+   *
+   * @return 不存在时返回 null
+   */
+  public synchronized byte[] get(String imagePath) {
+    Slot slot = slots.get(imagePath);
+    if (slot == null) {
+      return null;
+    }
+    byte[] data = new byte[slot.length()];
+    slot.chunk().buffer.get(slot.offset(), data);
+    return data;
+  }
+
+  /**
+   * 原图发生变化时丢弃旧的缩略图，占用的空间在内存块被复用时回收
+   */
+  public synchronized void invalidate(String imagePath) {
+    slots.remove(imagePath);
+  }
+
+  private Chunk nextChunk() {
+    Chunk chunk;
+    if (chunks.size() < MAX_CHUNKS) {
+      chunk = new Chunk();
+    } else {
+      Chunk eldest = chunks.pollFirst();
+      int before = slots.size();
+      slots.values().removeIf(slot -> slot.chunk() == eldest);
+      evictions += before - slots.size();
+      eldest.used = 0;
+      chunk = eldest;
+    }
+    chunks.addLast(chunk);
+    return chunk;
+  }
+
+  public synchronized String stats() {
+    long used = chunks.stream().mapToLong(chunk -> chunk.used).sum();
+    return String.format("entries=%d, chunks=%d, used=%d KB, evictions=%d",
+      slots.size(), chunks.size(), used / 1024, evictions);
+  }
+}
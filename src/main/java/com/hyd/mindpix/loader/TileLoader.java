@@ -0,0 +1,215 @@
+package com.hyd.mindpix.loader;
+
+import com.hyd.mindpix.utils.ExifUtils;
+import com.hyd.mindpix.utils.ImageUtils;
+import com.hyd.mindpix.utils.PixelUtils;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.event.IIOReadProgressListener;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+/**
+ * 按区域解码大图，用于固定模式下的分块显示。
+ * 所有解码在同一个后台线程中进行，连续读取同一张图片时复用 {@link ImageReader}。
+ * <p>
+ * 区域坐标是按 EXIF 方向转正后的坐标，与预览图一致；解码时换算成原图中的区域，解码后再转正。
+ */
+@Slf4j
+public class TileLoader {
+
+  private static TileLoader instance;
+
+  private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "preview-tiles");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  // 以下字段只在解码线程中访问
+  private String readerPath;
+
+  private ImageInputStream readerInput;
+
+  private ImageReader reader;
+
+  private int readerOrientation = ExifUtils.ORIENTATION_NORMAL;
+
+  public static synchronized TileLoader getInstance() {
+    if (instance == null) {
+      instance = new TileLoader();
+    }
+    return instance;
+  }
+
+  private TileLoader() {
+  }
+
+  /**
+   * 解码图片的一个区域
+   *
+   * @param imagePath   图片路径
+   * @param region      转正后的图片中的区域
+   * @param subsampling 降采样步长，1 表示不降采样
+   * @param cancelled   返回 true 时放弃解码
+   * @param onLoaded    在解码线程中调用，失败或取消时传入 null
+   */
+  public void load(String imagePath, Rectangle region, int subsampling,
+                   BooleanSupplier cancelled, Consumer<BufferedImage> onLoaded) {
+    executor.execute(() -> {
+      if (cancelled.getAsBoolean()) {
+        onLoaded.accept(null);
+        return;
+      }
+      try {
+        ImageReader imageReader = openReader(imagePath);
+        int orientation = readerOrientation;
+        ImageReadParam param = imageReader.getDefaultReadParam();
+        param.setSourceRegion(toSourceRegion(region, imageReader.getWidth(0), imageReader.getHeight(0), orientation));
+        if (subsampling > 1) {
+          param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+        }
+
+        IIOReadProgressListener abortWhenCancelled = new ReadProgressAdapter() {
+          @Override
+          public void imageProgress(ImageReader source, float percentageDone) {
+            if (cancelled.getAsBoolean()) {
+              source.abort();
+            }
+          }
+        };
+        imageReader.addIIOReadProgressListener(abortWhenCancelled);
+        try {
+          BufferedImage image = imageReader.read(0, param);
+          onLoaded.accept(cancelled.getAsBoolean() ? null : ImageUtils.applyOrientation(image, orientation));
+        } finally {
+          imageReader.removeIIOReadProgressListener(abortWhenCancelled);
+        }
+      } catch (IOException | RuntimeException e) {
+        log.warn("Error decoding region {} of {}", region, imagePath, e);
+        closeReader();
+        onLoaded.accept(null);
+      }
+    });
+  }
+
+  /**
+   * 不再需要这张图片的分块时释放解码器
+   */
+  public void release(String imagePath) {
+    executor.execute(() -> {
+      if (imagePath.equals(readerPath)) {
+        closeReader();
+      }
+    });
+  }
+
+  /**
+   * 把转正后的图片中的区域换算成原图中的区域，是 {@link PixelUtils} 中转正映射的逆映射
+   *
+   * @param width  原图宽度
+   * @param height 原图高度
+   */
+  private static Rectangle toSourceRegion(Rectangle region, int width, int height, int orientation) {
+    int x = region.x;
+    int y = region.y;
+    int w = region.width;
+    int h = region.height;
+    return switch (orientation) {
+      case 2 -> new Rectangle(width - x - w, y, w, h);
+      case 3 -> new Rectangle(width - x - w, height - y - h, w, h);
+      case 4 -> new Rectangle(x, height - y - h, w, h);
+      case 5 -> new Rectangle(y, x, h, w);
+      case 6 -> new Rectangle(y, height - x - w, h, w);
+      case 7 -> new Rectangle(width - y - h, height - x - w, h, w);
+      case 8 -> new Rectangle(width - y - h, x, h, w);
+      default -> region;
+    };
+  }
+
+  private ImageReader openReader(String imagePath) throws IOException {
+    if (imagePath.equals(readerPath) && reader != null) {
+      return reader;
+    }
+    closeReader();
+
+    ImageInputStream input = ImageIO.createImageInputStream(new File(imagePath));
+    if (input == null) {
+      throw new IOException("无法读取图片文件: " + imagePath);
+    }
+    Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+    if (!readers.hasNext()) {
+      input.close();
+      throw new IOException("无法读取图片文件: " + imagePath);
+    }
+    reader = readers.next();
+    reader.setInput(input, false, true);
+    readerInput = input;
+    readerPath = imagePath;
+    readerOrientation = ExifUtils.readOrientation(imagePath);
+    return reader;
+  }
+
+  private void closeReader() {
+    if (reader != null) {
+      reader.dispose();
+      reader = null;
+    }
+    if (readerInput != null) {
+      try {
+        readerInput.close();
+      } catch (IOException e) {
+        log.warn("Error closing image input", e);
+      }
+      readerInput = null;
+    }
+    readerPath = null;
+    readerOrientation = ExifUtils.ORIENTATION_NORMAL;
+  }
+
+  private abstract static class ReadProgressAdapter implements IIOReadProgressListener {
+
+    @Override
+    public void sequenceStarted(ImageReader source, int minIndex) {
+    }
+
+    @Override
+    public void sequenceComplete(ImageReader source) {
+    }
+
+    @Override
+    public void imageStarted(ImageReader source, int imageIndex) {
+    }
+
+    @Override
+    public void imageComplete(ImageReader source) {
+    }
+
+    @Override
+    public void thumbnailStarted(ImageReader source, int imageIndex, int thumbnailIndex) {
+    }
+
+    @Override
+    public void thumbnailProgress(ImageReader source, float percentageDone) {
+    }
+
+    @Override
+    public void thumbnailComplete(ImageReader source) {
+    }
+
+    @Override
+    public void readAborted(ImageReader source) {
+    }
+  }
+}
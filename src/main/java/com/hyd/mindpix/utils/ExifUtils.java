@@ -0,0 +1,222 @@
+package com.hyd.mindpix.utils;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * 只读取 JPEG 文件头部的标记段，解析出 EXIF 方向、内嵌缩略图和原图尺寸，不解码图像数据。
+ */
+public class ExifUtils {
+
+  public static final int ORIENTATION_NORMAL = 1;
+
+  private static final int TAG_ORIENTATION = 0x0112;
+
+  private static final int TAG_THUMBNAIL_OFFSET = 0x0201;
+
+  private static final int TAG_THUMBNAIL_LENGTH = 0x0202;
+
+  /**
+   * 内嵌缩略图与原图宽高比的最大差异，超过时认为缩略图带有黑边
+   */
+  private static final double MAX_ASPECT_DIFFERENCE = 0.05;
+
+  /**
+   * JPEG 文件头信息
+   *
+   * @param orientation EXIF 方向（1-8）
+   * @param thumbnail   内嵌缩略图的 JPEG 数据，没有时为 null
+   * @param width       原图宽度，未知时为 0
+   * @param height      原图高度，未知时为 0
+   */
+  public record JpegHeader(int orientation, byte[] thumbnail, int width, int height) {
+
+    public static final JpegHeader NONE = new JpegHeader(ORIENTATION_NORMAL, null, 0, 0);
+
+    /**
+     * 按 EXIF 方向转正后的宽度，未知时为 0
+     */
+    public int orientedWidth() {
+      return isTransposed(orientation) ? height : width;
+    }
+
+    /**
+     * 按 EXIF 方向转正后的高度，未知时为 0
+     */
+    public int orientedHeight() {
+      return isTransposed(orientation) ? width : height;
+    }
+
+    /**
+     * 解码内嵌缩略图
+     *
+     * @param minSize 缩略图最长边至少需要的像素数
+     * @return 缩略图，不存在、太小或宽高比与原图不一致时返回 null
+     */
+    public BufferedImage decodeThumbnail(int minSize) {
+      if (thumbnail == null) {
+        return null;
+      }
+      try {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(thumbnail));
+        if (image == null || Math.max(image.getWidth(), image.getHeight()) < minSize) {
+          return null;
+        }
+        if (width > 0 && height > 0) {
+          double expected = (double) width / height;
+          double actual = (double) image.getWidth() / image.getHeight();
+          if (Math.abs(actual - expected) / expected > MAX_ASPECT_DIFFERENCE) {
+            return null;
+          }
+        }
+        return image;
+      } catch (IOException e) {
+        return null;
+      }
+    }
+  }
+
+  /**
+   * 该方向转正时是否需要交换宽和高（旋转 90 度或 270 度）
+   */
+  public static boolean isTransposed(int orientation) {
+    return orientation >= 5 && orientation <= 8;
+  }
+
+  /**
+   * 读取图片的 EXIF 方向，不是 JPEG 或没有方向信息时返回 {@link #ORIENTATION_NORMAL}
+   */
+  public static int readOrientation(String imagePath) {
+    return isJpeg(imagePath) ? readJpegHeader(Path.of(imagePath)).orientation() : ORIENTATION_NORMAL;
+  }
+
+  public static boolean isJpeg(String fileName) {
+    String lower = fileName.toLowerCase();
+    return lower.endsWith(".jpg") || lower.endsWith(".jpeg");
+  }
+
+  /**
+   * 读取 JPEG 文件头，在遇到图像数据（SOS 标记）之前停止
+   *
+   * @param path JPEG 文件
+   * @return 文件头信息，文件不是 JPEG 或解析失败时返回 {@link JpegHeader#NONE}
+   */
+  public static JpegHeader readJpegHeader(Path path) {
+    try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 8192))) {
+      if (in.readUnsignedShort() != 0xFFD8) {
+        return JpegHeader.NONE;
+      }
+
+      int orientation = ORIENTATION_NORMAL;
+      byte[] thumbnail = null;
+      while (true) {
+        int marker = in.readUnsignedShort();
+        if ((marker & 0xFF00) != 0xFF00 || marker == 0xFFDA || marker == 0xFFD9) {
+          return new JpegHeader(orientation, thumbnail, 0, 0);
+        }
+        int length = in.readUnsignedShort() - 2;
+        if (length < 0) {
+          return new JpegHeader(orientation, thumbnail, 0, 0);
+        }
+
+        if (marker == 0xFFE1 && thumbnail == null) {
+          byte[] segment = in.readNBytes(length);
+          JpegHeader exif = parseExif(segment);
+          if (exif != null) {
+            orientation = exif.orientation();
+            thumbnail = exif.thumbnail();
+          }
+        } else if (isStartOfFrame(marker)) {
+          in.readUnsignedByte(); // 采样精度
+          int height = in.readUnsignedShort();
+          int width = in.readUnsignedShort();
+          // SOF 之后只剩哈夫曼表等，不会再有 EXIF 段
+          return new JpegHeader(orientation, thumbnail, width, height);
+        } else {
+          in.skipNBytes(length);
+        }
+      }
+    } catch (IOException e) {
+      return JpegHeader.NONE;
+    }
+  }
+
+  private static boolean isStartOfFrame(int marker) {
+    return marker >= 0xFFC0 && marker <= 0xFFCF
+      && marker != 0xFFC4 && marker != 0xFFC8 && marker != 0xFFCC;
+  }
+
+  /**
+   * 解析 APP1 段中的 EXIF 数据
+   *
+   * @return 方向与缩略图，不是 EXIF 段时返回 null
+   */
+  private static JpegHeader parseExif(byte[] segment) {
+    if (segment.length < 14
+      || segment[0] != 'E' || segment[1] != 'x' || segment[2] != 'i' || segment[3] != 'f'
+      || segment[4] != 0 || segment[5] != 0) {
+      return null;
+    }
+
+    try {
+      ByteBuffer tiff = ByteBuffer.wrap(segment, 6, segment.length - 6).slice();
+      if (tiff.get(0) == 'I' && tiff.get(1) == 'I') {
+        tiff.order(ByteOrder.LITTLE_ENDIAN);
+      } else if (tiff.get(0) == 'M' && tiff.get(1) == 'M') {
+        tiff.order(ByteOrder.BIG_ENDIAN);
+      } else {
+        return null;
+      }
+
+      int orientation = ORIENTATION_NORMAL;
+      int thumbnailOffset = -1;
+      int thumbnailLength = -1;
+
+      // IFD0：方向
+      int ifd0 = tiff.getInt(4);
+      int entryCount = Short.toUnsignedInt(tiff.getShort(ifd0));
+      for (int i = 0; i < entryCount; i++) {
+        int entry = ifd0 + 2 + i * 12;
+        if (Short.toUnsignedInt(tiff.getShort(entry)) == TAG_ORIENTATION) {
+          orientation = Short.toUnsignedInt(tiff.getShort(entry + 8));
+        }
+      }
+
+      // IFD1：缩略图
+      int ifd1 = tiff.getInt(ifd0 + 2 + entryCount * 12);
+      if (ifd1 > 0) {
+        int thumbnailEntryCount = Short.toUnsignedInt(tiff.getShort(ifd1));
+        for (int i = 0; i < thumbnailEntryCount; i++) {
+          int entry = ifd1 + 2 + i * 12;
+          int tag = Short.toUnsignedInt(tiff.getShort(entry));
+          if (tag == TAG_THUMBNAIL_OFFSET) {
+            thumbnailOffset = tiff.getInt(entry + 8);
+          } else if (tag == TAG_THUMBNAIL_LENGTH) {
+            thumbnailLength = tiff.getInt(entry + 8);
+          }
+        }
+      }
+
+      byte[] thumbnail = null;
+      if (thumbnailOffset > 0 && thumbnailLength > 0 && thumbnailOffset + thumbnailLength <= tiff.limit()) {
+        thumbnail = new byte[thumbnailLength];
+        tiff.get(thumbnailOffset, thumbnail);
+      }
+      if (orientation < 1 || orientation > 8) {
+        orientation = ORIENTATION_NORMAL;
+      }
+      return new JpegHeader(orientation, thumbnail, 0, 0);
+    } catch (IndexOutOfBoundsException | BufferUnderflowException e) {
+      return null;
+    }
+  }
+}
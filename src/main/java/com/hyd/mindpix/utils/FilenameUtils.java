@@ -12,4 +12,13 @@ public class FilenameUtils {
       return filePath;
     }
   }
+
+  public static String getParentPath(String filePath) {
+    int lastSeparatorIndex = filePath.lastIndexOf(File.separator);
+    if (lastSeparatorIndex != -1) {
+      return filePath.substring(0, lastSeparatorIndex);
+    } else {
+      return "";
+    }
+  }
 }
@@ -1,50 +1,110 @@
 package com.hyd.mindpix.utils;
 
-import javafx.embed.swing.SwingFXUtils;
-import javafx.scene.image.Image;
 import org.imgscalr.Scalr;
 
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Dimension;
 import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
 
 public class ImageUtils {
 
   /**
-   * 重写 resize 方法，使用 BufferedImage 实现缩略图生成，避免依赖 JavaFX 渲染线程
-   * 同时保留高斯模糊功能以提高缩略图质量
+   * 降采样解码时，保留的尺寸至少是目标尺寸的倍数，给最终的高质量缩放留出余量
+   */
+  private static final int SUBSAMPLING_MARGIN = 2;
+
+  /**
+   * 只读取文件头获取图片尺寸，不解码图像数据
+   *
+   * @param file 图片文件
+   * @return 宽和高，无法识别时返回 null
+   */
+  public static Dimension readImageSize(File file) {
+    try (ImageInputStream input = ImageIO.createImageInputStream(file)) {
+      if (input == null) {
+        return null;
+      }
+      Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+      if (!readers.hasNext()) {
+        return null;
+      }
+      ImageReader reader = readers.next();
+      try {
+        reader.setInput(input, true, true);
+        return new Dimension(reader.getWidth(0), reader.getHeight(0));
+      } finally {
+        reader.dispose();
+      }
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  /**
+   * 以缩略图为目的读取图片：先读取文件头得到原图尺寸，然后通过
+   * {@link ImageReadParam#setSourceSubsampling} 隔行隔列解码，
+   * 得到接近目标尺寸（不小于目标尺寸的 {@value #SUBSAMPLING_MARGIN} 倍）的图像，
+   * 避免把整张大图解码到内存中。
    *
-   * @param source       原始图像
+   * @param file         图片文件
    * @param targetWidth  目标宽度
    * @param targetHeight 目标高度
-   * @return 缩放后的图像
+   * @return 降采样后的图像，需要再调用 {@link PixelUtils#resize(BufferedImage, int, int, int)} 得到最终尺寸
+   * @throws IOException 无法识别或读取图片时抛出
    */
-  public static Image resize(Image source, int targetWidth, int targetHeight) {
-    BufferedImage bufferedImage = SwingFXUtils.fromFXImage(source, null);
-    BufferedImage scaledImage = resize(bufferedImage, targetWidth, targetHeight);
-    return SwingFXUtils.toFXImage(scaledImage, null);
-  }
+  public static BufferedImage readSubsampled(File file, int targetWidth, int targetHeight) throws IOException {
+    try (ImageInputStream input = ImageIO.createImageInputStream(file)) {
+      if (input == null) {
+        throw new IOException("无法读取图片文件: " + file);
+      }
+      Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+      if (!readers.hasNext()) {
+        throw new IOException("无法读取图片文件: " + file);
+      }
 
-  public static BufferedImage resize(BufferedImage src, int targetWidth, int targetHeight) {
-    // 计算原始图像的宽高比
-    double originalRatio = (double) src.getWidth() / src.getHeight();
-    double targetRatio = (double) targetWidth / targetHeight;
-
-    // 根据纵横比调整目标尺寸
-    int adjustedWidth, adjustedHeight;
-    if (originalRatio > targetRatio) {
-      // 原始图像更宽，以宽度为准
-      adjustedWidth = targetWidth;
-      adjustedHeight = (int) (targetWidth / originalRatio);
-    } else {
-      // 原始图像更高，以高度为准
-      adjustedHeight = targetHeight;
-      adjustedWidth = (int) (targetHeight * originalRatio);
-    }
+      ImageReader reader = readers.next();
+      try {
+        reader.setInput(input, true, true);
+        int width = reader.getWidth(0);
+        int height = reader.getHeight(0);
 
-    // 使用 imgscalr 进行高质量缩放
-    BufferedImage scaledImage = Scalr.resize(src, Scalr.Method.QUALITY,
-      Scalr.Mode.FIT_EXACT, adjustedWidth, adjustedHeight,
-      Scalr.OP_ANTIALIAS);
-    return scaledImage;
+        double ratio = Math.max((double) width / targetWidth, (double) height / targetHeight);
+        int step = Math.max(1, (int) (ratio / SUBSAMPLING_MARGIN));
+
+        ImageReadParam param = reader.getDefaultReadParam();
+        if (step > 1) {
+          param.setSourceSubsampling(step, step, 0, 0);
+        }
+        return reader.read(0, param);
+      } finally {
+        reader.dispose();
+      }
+    }
   }
 
+  /**
+   * 按照 EXIF 方向旋转或翻转图像
+   *
+   * @param src         图像
+   * @param orientation EXIF 方向（1-8）
+   * @return 转正后的图像，方向为 1 时直接返回原图像
+   */
+  public static BufferedImage applyOrientation(BufferedImage src, int orientation) {
+    return switch (orientation) {
+      case 2 -> Scalr.rotate(src, Scalr.Rotation.FLIP_HORZ);
+      case 3 -> Scalr.rotate(src, Scalr.Rotation.CW_180);
+      case 4 -> Scalr.rotate(src, Scalr.Rotation.FLIP_VERT);
+      case 5 -> Scalr.rotate(Scalr.rotate(src, Scalr.Rotation.CW_90), Scalr.Rotation.FLIP_HORZ);
+      case 6 -> Scalr.rotate(src, Scalr.Rotation.CW_90);
+      case 7 -> Scalr.rotate(Scalr.rotate(src, Scalr.Rotation.CW_90), Scalr.Rotation.FLIP_VERT);
+      case 8 -> Scalr.rotate(src, Scalr.Rotation.CW_270);
+      default -> src;
+    };
+  }
 }
@@ -0,0 +1,159 @@
+package com.hyd.mindpix.utils;
+
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelBuffer;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * 直接内存像素缓冲池。JavaFX 图片直接以池中的缓冲作为像素存储（{@link PixelBuffer}），
+ * 不经过中间的 AWT 图像和堆上的像素数组。
+ * <p>
+ * 图片不再显示时调用 {@link #recycle(Image)} 把缓冲还回池中，下一张同样大小的图片可以直接复用，
+ * 不必重新分配直接内存；没有还回的缓冲随图片一起被回收。
+ * <p>
+ * 图片移出场景后，渲染线程可能还在用它的像素绘制前一帧，所以归还的缓冲要等
+ * {@value #RENDER_PULSES} 个脉冲之后才能复用，否则新图片的像素会出现在旧的画面上。
+ */
+public class PixelBufferPool {
+
+  /**
+   * 池中空闲缓冲的总字节数上限
+   */
+  private static final long MAX_POOLED_BYTES = 64L * 1024 * 1024;
+
+  /**
+   * 最小的缓冲容量（像素数），更小的请求也分配这么大，便于复用
+   */
+  private static final int MIN_CAPACITY = 1024;
+
+  /**
+   * 归还的缓冲经过多少个脉冲后可以复用：归还之前的一帧和归还所在的一帧都已渲染完成
+   */
+  private static final int RENDER_PULSES = 2;
+
+  private static PixelBufferPool instance;
+
+  /**
+   * 空闲的缓冲，按容量分组
+   */
+  private final Map<Integer, Deque<IntBuffer>> free = new HashMap<>();
+
+  /**
+   * 由本池分配的图片及其缓冲，图片被回收时条目自动消失
+   */
+  private final Map<Image, IntBuffer> owners = new WeakHashMap<>();
+
+  private long pooledBytes = 0;
+
+  /**
+   * 已归还但可能仍在渲染的缓冲，按归还顺序排列
+   */
+  private final Deque<Pending> pending = new ArrayDeque<>();
+
+  private record Pending(IntBuffer buffer, long reusablePulse) {
+  }
+
+  private long pulse = 0;
+
+  private boolean timerRunning = false;
+
+  private final AnimationTimer timer = new AnimationTimer() {
+    @Override
+    public void handle(long now) {
+      releasePending();
+    }
+  };
+
+  public static synchronized PixelBufferPool getInstance() {
+    if (instance == null) {
+      instance = new PixelBufferPool();
+    }
+    return instance;
+  }
+
+  private PixelBufferPool() {
+  }
+
+  /**
+   * 取得一个至少能容纳指定像素数的缓冲，位置为 0
+   */
+  public synchronized IntBuffer acquire(int pixels) {
+    int capacity = capacityFor(pixels);
+    Deque<IntBuffer> buffers = free.get(capacity);
+    IntBuffer buffer = buffers == null ? null : buffers.poll();
+    if (buffer != null) {
+      pooledBytes -= (long) capacity * Integer.BYTES;
+      return buffer.clear();
+    }
+    return ByteBuffer.allocateDirect(capacity * Integer.BYTES).order(ByteOrder.nativeOrder()).asIntBuffer();
+  }
+
+  /**
+   * 用缓冲中的预乘 ARGB 像素创建图片，图片与缓冲共享像素
+   */
+  public WritableImage wrap(IntBuffer buffer, int width, int height) {
+    var image = new WritableImage(new PixelBuffer<>(width, height, buffer.rewind(), PixelFormat.getIntArgbPreInstance()));
+    synchronized (this) {
+      owners.put(image, buffer);
+    }
+    return image;
+  }
+
+  /**
+   * 归还图片的像素缓冲，若干个脉冲之后才能复用。调用之后图片不能再显示；不是由本池创建的图片被忽略。
+   */
+  public synchronized void recycle(Image image) {
+    IntBuffer buffer = owners.remove(image);
+    if (buffer == null) {
+      return;
+    }
+    pending.add(new Pending(buffer, pulse + RENDER_PULSES));
+    if (!timerRunning) {
+      timerRunning = true;
+      if (Platform.isFxApplicationThread()) {
+        timer.start();
+      } else {
+        Platform.runLater(timer::start);
+      }
+    }
+  }
+
+  /**
+   * 每个脉冲调用一次，把已经渲染完的缓冲放入空闲池，没有待复用的缓冲时停止计时器
+   */
+  private synchronized void releasePending() {
+    pulse++;
+    while (!pending.isEmpty() && pending.peek().reusablePulse() <= pulse) {
+      IntBuffer buffer = pending.poll().buffer();
+      long bytes = (long) buffer.capacity() * Integer.BYTES;
+      if (pooledBytes + bytes <= MAX_POOLED_BYTES) {
+        free.computeIfAbsent(buffer.capacity(), _ -> new ArrayDeque<>()).push(buffer);
+        pooledBytes += bytes;
+      }
+    }
+    if (pending.isEmpty()) {
+      timer.stop();
+      timerRunning = false;
+    }
+  }
+
+  /**
+   * 容量按 1/8 的数量级取整，尺寸相近的图片可以共用缓冲，浪费不超过八分之一
+   */
+  private static int capacityFor(int pixels) {
+    int step = Math.max(MIN_CAPACITY, Integer.highestOneBit(Math.max(1, pixels)) / 8);
+    return (pixels + step - 1) / step * step;
+  }
+}
@@ -0,0 +1,375 @@
+package com.hyd.mindpix.utils;
+
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.PixelReader;
+import javafx.scene.image.PixelWriter;
+import javafx.scene.image.WritableImage;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * 直接在像素数组上缩放和转正图片，结果写入 {@link PixelBufferPool} 中的缓冲生成 JavaFX 图片。
+ * 整个过程只按行读取源图像，不创建中间的 AWT 图像，也不为每张图片分配临时数组，
+ * 临时数组按线程复用。
+ */
+public class PixelUtils {
+
+  private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+  private static final int[] RGB_MASKS = {0xFF0000, 0xFF00, 0xFF};
+
+  private static final int[] ARGB_MASKS = {0xFF0000, 0xFF00, 0xFF, 0xFF000000};
+
+  /**
+   * 缩放结果，像素为非预乘的 ARGB，按行存放。
+   * <p>
+   * 像素数组属于当前线程的临时数组，在同一线程下一次缩放之前有效。
+   *
+   * @param data   像素
+   * @param width  宽度
+   * @param height 高度
+   * @param alpha  是否包含透明度
+   */
+  public record Pixels(int[] data, int width, int height, boolean alpha) {
+
+    /**
+     * 复制到池中的缓冲，生成 JavaFX 图片
+     */
+    public WritableImage toFXImage() {
+      var pool = PixelBufferPool.getInstance();
+      IntBuffer buffer = pool.acquire(width * height);
+      if (!alpha) {
+        buffer.put(0, data, 0, width * height);
+      } else {
+        int[] row = SCRATCH.get().row(width);
+        for (int y = 0; y < height; y++) {
+          System.arraycopy(data, y * width, row, 0, width);
+          premultiply(row, width);
+          buffer.put(y * width, row, 0, width);
+        }
+      }
+      return pool.wrap(buffer, width, height);
+    }
+
+    /**
+     * 包装成 AWT 图像，与本对象共享像素，用于编码保存
+     */
+    public BufferedImage asBufferedImage() {
+      var dataBuffer = new DataBufferInt(data, width * height);
+      WritableRaster raster = Raster.createPackedRaster(dataBuffer, width, height, width,
+        alpha ? ARGB_MASKS : RGB_MASKS, null);
+      ColorModel colorModel = alpha ? ColorModel.getRGBdefault() : new DirectColorModel(24, RGB_MASKS[0], RGB_MASKS[1], RGB_MASKS[2]);
+      return new BufferedImage(colorModel, raster, false, null);
+    }
+  }
+
+  /**
+   * 逐行读取源图像，读到的像素为非预乘的 ARGB
+   */
+  @FunctionalInterface
+  private interface RowReader {
+    void read(int y, int[] row);
+  }
+
+  private PixelUtils() {
+  }
+
+  /**
+   * 把整张 AWT 图像复制为 JavaFX 图片
+   */
+  public static WritableImage toFXImage(BufferedImage image) {
+    return toFXImage(image, 0, 0, image.getWidth(), image.getHeight());
+  }
+
+  /**
+   * 把 AWT 图像中的一个区域复制为 JavaFX 图片
+   */
+  public static WritableImage toFXImage(BufferedImage image, int x, int y, int width, int height) {
+    boolean alpha = image.getColorModel().hasAlpha();
+    var pool = PixelBufferPool.getInstance();
+    IntBuffer buffer = pool.acquire(width * height);
+    int[] row = SCRATCH.get().row(width);
+    for (int r = 0; r < height; r++) {
+      readRow(image, x, y + r, width, row);
+      if (alpha) {
+        premultiply(row, width);
+      }
+      buffer.put(r * width, row, 0, width);
+    }
+    return pool.wrap(buffer, width, height);
+  }
+
+  /**
+   * 按比例缩放到目标尺寸以内并按 EXIF 方向转正，一次完成
+   *
+   * @param source       源图像
+   * @param targetWidth  目标宽度
+   * @param targetHeight 目标高度
+   * @param orientation  EXIF 方向（1-8）
+   */
+  public static Pixels resize(BufferedImage source, int targetWidth, int targetHeight, int orientation) {
+    int width = source.getWidth();
+    int height = source.getHeight();
+    return resample((y, row) -> readRow(source, 0, y, width, row), width, height,
+      source.getColorModel().hasAlpha(), targetWidth, targetHeight, orientation);
+  }
+
+  /**
+   * 按比例缩放 JavaFX 图片到目标尺寸以内
+   */
+  public static Pixels resize(Image source, int targetWidth, int targetHeight) {
+    return resize(source, targetWidth, targetHeight, 1);
+  }
+
+  /**
+   * 按比例缩放 JavaFX 图片到目标尺寸以内并按 EXIF 方向转正，一次完成
+   */
+  public static Pixels resize(Image source, int targetWidth, int targetHeight, int orientation) {
+    PixelReader reader = source.getPixelReader();
+    int width = (int) source.getWidth();
+    int height = (int) source.getHeight();
+    boolean alpha = reader.getPixelFormat().hasAlpha();
+    return resample((y, row) -> reader.getPixels(0, y, width, 1, PixelFormat.getIntArgbInstance(), row, 0, width),
+      width, height, alpha, targetWidth, targetHeight, orientation);
+  }
+
+  /**
+   * 按 EXIF 方向转正 JavaFX 图片，按行读取源图片，整行或整列写入新图片
+   *
+   * @param orientation EXIF 方向（1-8）
+   * @return 转正后的图片，方向为 1 时直接返回源图片
+   */
+  public static Image orient(Image source, int orientation) {
+    if (orientation < 2 || orientation > 8) {
+      return source;
+    }
+    PixelReader reader = source.getPixelReader();
+    int width = (int) source.getWidth();
+    int height = (int) source.getHeight();
+    boolean transposed = ExifUtils.isTransposed(orientation);
+    var target = transposed ? new WritableImage(height, width) : new WritableImage(width, height);
+    PixelWriter writer = target.getPixelWriter();
+    var format = PixelFormat.getIntArgbPreInstance();
+    // 与 targetIndex 一致：源图的第 y 行成为目标图的一行或一列，方向可能相反
+    boolean reversed = orientation == 2 || orientation == 3 || orientation == 7 || orientation == 8;
+    boolean fromBottom = orientation == 3 || orientation == 4 || orientation == 6 || orientation == 7;
+    int[] row = SCRATCH.get().row(width);
+    for (int y = 0; y < height; y++) {
+      reader.getPixels(0, y, width, 1, format, row, 0, width);
+      if (reversed) {
+        for (int i = 0, j = width - 1; i < j; i++, j--) {
+          int pixel = row[i];
+          row[i] = row[j];
+          row[j] = pixel;
+        }
+      }
+      int line = fromBottom ? height - 1 - y : y;
+      if (transposed) {
+        writer.setPixels(line, 0, 1, width, format, row, 0, 1);
+      } else {
+        writer.setPixels(0, line, width, 1, format, row, 0, width);
+      }
+    }
+    return target;
+  }
+
+  /**
+   * 面积平均缩放：每个目标像素取其覆盖的源像素的平均值，透明像素按预乘后平均，避免边缘发黑。
+   * 每个源行只读取一次；放大时退化为最近邻。
+   */
+  private static Pixels resample(RowReader reader, int sourceWidth, int sourceHeight, boolean alpha,
+                                 int targetWidth, int targetHeight, int orientation) {
+    double sourceRatio = (double) sourceWidth / sourceHeight;
+    int width, height;
+    if (sourceRatio > (double) targetWidth / targetHeight) {
+      width = targetWidth;
+      height = Math.max(1, (int) (targetWidth / sourceRatio));
+    } else {
+      height = targetHeight;
+      width = Math.max(1, (int) (targetHeight * sourceRatio));
+    }
+
+    Scratch scratch = SCRATCH.get();
+    int[] row = scratch.row(sourceWidth);
+    int[] columnStart = scratch.columnStart(width + 1);
+    for (int x = 0; x <= width; x++) {
+      columnStart[x] = (int) ((long) x * sourceWidth / width);
+    }
+    long[][] sums = scratch.sums(width);
+    long[] sumA = sums[0], sumR = sums[1], sumG = sums[2], sumB = sums[3];
+    int[] out = scratch.out(width * height);
+
+    boolean transposed = ExifUtils.isTransposed(orientation);
+    int lastRow = -1;
+    for (int y = 0; y < height; y++) {
+      int rowStart = (int) ((long) y * sourceHeight / height);
+      int rowEnd = Math.max(rowStart + 1, (int) ((long) (y + 1) * sourceHeight / height));
+      for (long[] sum : sums) {
+        Arrays.fill(sum, 0, width, 0);
+      }
+
+      for (int sy = rowStart; sy < rowEnd; sy++) {
+        if (sy != lastRow) {
+          reader.read(sy, row);
+          lastRow = sy;
+        }
+        for (int x = 0; x < width; x++) {
+          int columnEnd = Math.max(columnStart[x] + 1, columnStart[x + 1]);
+          long a = 0, r = 0, g = 0, b = 0;
+          for (int sx = columnStart[x]; sx < columnEnd; sx++) {
+            int argb = row[sx];
+            int pa = alpha ? argb >>> 24 : 255;
+            a += pa;
+            r += ((argb >> 16) & 0xFF) * pa;
+            g += ((argb >> 8) & 0xFF) * pa;
+            b += (argb & 0xFF) * pa;
+          }
+          sumA[x] += a;
+          sumR[x] += r;
+          sumG[x] += g;
+          sumB[x] += b;
+        }
+      }
+
+      int rows = rowEnd - rowStart;
+      for (int x = 0; x < width; x++) {
+        long count = (long) rows * Math.max(1, columnStart[x + 1] - columnStart[x]);
+        long a = sumA[x];
+        int argb = 0;
+        if (a > 0) {
+          argb = (int) ((a + count / 2) / count) << 24
+                 | (int) ((sumR[x] + a / 2) / a) << 16
+                 | (int) ((sumG[x] + a / 2) / a) << 8
+                 | (int) ((sumB[x] + a / 2) / a);
+        }
+        out[targetIndex(orientation, x, y, width, height)] = argb;
+      }
+    }
+    return transposed
+      ? new Pixels(out, height, width, alpha)
+      : new Pixels(out, width, height, alpha);
+  }
+
+  /**
+   * 缩放后坐标为 (x, y) 的像素在转正后的图像中的位置
+   */
+  private static int targetIndex(int orientation, int x, int y, int width, int height) {
+    return switch (orientation) {
+      case 2 -> y * width + (width - 1 - x);
+      case 3 -> (height - 1 - y) * width + (width - 1 - x);
+      case 4 -> (height - 1 - y) * width + x;
+      case 5 -> x * height + y;
+      case 6 -> x * height + (height - 1 - y);
+      case 7 -> (width - 1 - x) * height + (height - 1 - y);
+      case 8 -> (width - 1 - x) * height + y;
+      default -> y * width + x;
+    };
+  }
+
+  /**
+   * 读取一行像素。ImageIO 常见的几种图像类型直接访问底层数组，其余类型逐像素转换。
+   */
+  private static void readRow(BufferedImage image, int x, int y, int width, int[] row) {
+    WritableRaster raster = image.getRaster();
+    int rasterX = x - raster.getSampleModelTranslateX();
+    int rasterY = y - raster.getSampleModelTranslateY();
+    switch (image.getType()) {
+      case BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB -> {
+        var sampleModel = (SinglePixelPackedSampleModel) raster.getSampleModel();
+        var dataBuffer = (DataBufferInt) raster.getDataBuffer();
+        int offset = dataBuffer.getOffset() + rasterY * sampleModel.getScanlineStride() + rasterX;
+        System.arraycopy(dataBuffer.getData(), offset, row, 0, width);
+        if (image.getType() == BufferedImage.TYPE_INT_RGB) {
+          for (int i = 0; i < width; i++) {
+            row[i] |= 0xFF000000;
+          }
+        }
+      }
+      case BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_4BYTE_ABGR -> {
+        var sampleModel = (ComponentSampleModel) raster.getSampleModel();
+        var dataBuffer = (DataBufferByte) raster.getDataBuffer();
+        byte[] data = dataBuffer.getData();
+        int[] bandOffsets = sampleModel.getBandOffsets();
+        int pixelStride = sampleModel.getPixelStride();
+        boolean alpha = bandOffsets.length > 3;
+        int p = dataBuffer.getOffset() + rasterY * sampleModel.getScanlineStride() + rasterX * pixelStride;
+        for (int i = 0; i < width; i++, p += pixelStride) {
+          int a = alpha ? data[p + bandOffsets[3]] & 0xFF : 0xFF;
+          row[i] = a << 24
+                   | (data[p + bandOffsets[0]] & 0xFF) << 16
+                   | (data[p + bandOffsets[1]] & 0xFF) << 8
+                   | (data[p + bandOffsets[2]] & 0xFF);
+        }
+      }
+      default -> image.getRGB(x, y, width, 1, row, 0, width);
+    }
+  }
+
+  private static void premultiply(int[] row, int width) {
+    for (int i = 0; i < width; i++) {
+      int argb = row[i];
+      int a = argb >>> 24;
+      if (a == 0) {
+        row[i] = 0;
+      } else if (a < 255) {
+        row[i] = a << 24
+                 | (((argb >> 16) & 0xFF) * a + 127) / 255 << 16
+                 | (((argb >> 8) & 0xFF) * a + 127) / 255 << 8
+                 | ((argb & 0xFF) * a + 127) / 255;
+      }
+    }
+  }
+
+  /**
+   * 每个线程复用的临时数组，只增不减
+   */
+  private static class Scratch {
+
+    private int[] row = new int[0];
+
+    private int[] columnStart = new int[0];
+
+    private long[][] sums = new long[4][0];
+
+    private int[] out = new int[0];
+
+    int[] row(int length) {
+      if (row.length < length) {
+        row = new int[length];
+      }
+      return row;
+    }
+
+    int[] columnStart(int length) {
+      if (columnStart.length < length) {
+        columnStart = new int[length];
+      }
+      return columnStart;
+    }
+
+    long[][] sums(int length) {
+      if (sums[0].length < length) {
+        sums = new long[4][length];
+      }
+      return sums;
+    }
+
+    int[] out(int length) {
+      if (out.length < length) {
+        out = new int[length];
+      }
+      return out;
+    }
+  }
+}
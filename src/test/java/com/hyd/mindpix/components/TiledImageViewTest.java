@@ -0,0 +1,45 @@
+package com.hyd.mindpix.components;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TiledImageViewTest {
+
+  @Test
+  void evictsEldestUnusedEntriesPastCapacity() {
+    // 与图块池一样按访问排序
+    var pool = new LinkedHashMap<Integer, String>(16, 0.75f, true);
+    for (int i = 0; i < 10; i++) {
+      pool.put(i, "tile-" + i);
+    }
+    // 最近用过的排到最后
+    pool.get(0);
+
+    List<String> recycled = new ArrayList<>();
+    TiledImageView.evict(pool, 4, Set.of(1, 2)::contains, recycled::add);
+
+    assertEquals(4, pool.size());
+    assertEquals(List.of(1, 2, 9, 0), new ArrayList<>(pool.keySet()));
+    assertEquals(List.of("tile-3", "tile-4", "tile-5", "tile-6", "tile-7", "tile-8"), recycled);
+  }
+
+  @Test
+  void keepsEntriesInUseEvenOverCapacity() {
+    var pool = new LinkedHashMap<Integer, String>(16, 0.75f, true);
+    for (int i = 0; i < 6; i++) {
+      pool.put(i, "tile-" + i);
+    }
+
+    List<String> recycled = new ArrayList<>();
+    TiledImageView.evict(pool, 2, key -> key < 5, recycled::add);
+
+    assertEquals(5, pool.size());
+    assertEquals(List.of("tile-5"), recycled);
+  }
+}
@@ -0,0 +1,78 @@
+package com.hyd.mindpix.loader;
+
+import com.hyd.mindpix.enums.CommitMode;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CommitJournalTest {
+
+  @TempDir
+  Path dir;
+
+  @Test
+  void planAndDoneRoundTrip() throws IOException {
+    Path targetDir = dir.resolve("target");
+    List<CommitJournal.Entry> entries = List.of(
+      new CommitJournal.Entry(0, Path.of("/photos/a.jpg"), targetDir.resolve("a.jpg"), 123, 1_700_000_000_000L),
+      new CommitJournal.Entry(1, Path.of("/photos/tab\tand\nnewline\\.jpg"), targetDir.resolve("b (1).jpg"), -1, -1),
+      new CommitJournal.Entry(2, Path.of("/photos/c.png"), targetDir.resolve("c.png"), 0, 0));
+
+    Path file;
+    try (var journal = CommitJournal.create(dir.resolve("journals"), CommitMode.MOVE, targetDir, entries)) {
+      journal.markDone(0);
+      journal.markDone(2);
+      file = journal.getFile();
+    }
+
+    try (var journal = CommitJournal.open(file)) {
+      assertEquals(CommitMode.MOVE, journal.getMode());
+      assertEquals(targetDir, journal.getTargetDir());
+      assertEquals(entries, journal.getEntries());
+      assertEquals(2, journal.doneCount());
+    }
+  }
+
+  @Test
+  void truncatedLastLineIsIgnored() throws IOException {
+    var entry = new CommitJournal.Entry(0, Path.of("/photos/a.jpg"), dir.resolve("a.jpg"), 1, 2);
+    Path file;
+    try (var journal = CommitJournal.create(dir, CommitMode.COPY, dir, List.of(entry))) {
+      file = journal.getFile();
+    }
+    Files.writeString(file, "PLAN\t1\t/photos/b.jpg", StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+
+    try (var journal = CommitJournal.open(file)) {
+      assertEquals(List.of(entry), journal.getEntries());
+      assertEquals(0, journal.doneCount());
+    }
+  }
+
+  @Test
+  void journalWithoutHeaderIsRejected() throws IOException {
+    Path file = Files.writeString(dir.resolve("broken" + CommitJournal.FILE_SUFFIX), "DONE\t0\n");
+    assertThrows(IOException.class, () -> CommitJournal.open(file));
+  }
+
+  @Test
+  void entryMatchesOnlyTheTransferredFile() throws IOException {
+    Path file = Files.writeString(dir.resolve("a.jpg"), "abc");
+    long modified = 1_700_000_000_000L;
+    Files.setLastModifiedTime(file, FileTime.fromMillis(modified));
+
+    assertTrue(new CommitJournal.Entry(0, file, file, 3, modified).matches(file));
+    assertFalse(new CommitJournal.Entry(0, file, file, 4, modified).matches(file));
+    assertFalse(new CommitJournal.Entry(0, file, file, 3, modified - 60_000).matches(file));
+    assertFalse(new CommitJournal.Entry(0, file, file, -1, -1).matches(file));
+    assertFalse(new CommitJournal.Entry(0, file, file, 3, modified).matches(dir.resolve("missing.jpg")));
+  }
+}
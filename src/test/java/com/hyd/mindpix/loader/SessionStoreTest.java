@@ -0,0 +1,84 @@
+package com.hyd.mindpix.loader;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SessionStoreTest {
+
+  @TempDir
+  Path sessionDir;
+
+  @Test
+  void loadReturnsNullWhenNothingSaved() {
+    assertNull(new SessionStore(sessionDir).load());
+  }
+
+  @Test
+  void tabsRoundTrip() {
+    var store = new SessionStore(sessionDir);
+    List<String> first = List.of("/photos/2024/a.jpg", "/photos/2024/ab.jpg", "/photos/2025/图片.png", "/other/b.jpg");
+    List<String> second = List.of("C:\\Users\\me\\tab\there.jpg");
+    store.save(
+      List.of(new SessionStore.TabHeader("默认", 2), new SessionStore.TabHeader("2", -1)), 1,
+      List.of(new SessionStore.TabContent("默认", first), new SessionStore.TabContent("2", second)));
+
+    SessionStore.Session session = new SessionStore(sessionDir).load();
+    assertNotNull(session);
+    assertEquals(1, session.selectedIndex());
+    assertEquals(List.of(
+      new SessionStore.TabState("默认", first, 2),
+      new SessionStore.TabState("2", second, -1)), session.tabs());
+  }
+
+  @Test
+  void unchangedTabsKeepTheirContent() {
+    var store = new SessionStore(sessionDir);
+    List<String> paths = List.of("/photos/a.jpg", "/photos/b.jpg", "/photos/c.jpg");
+    store.save(List.of(new SessionStore.TabHeader("默认", 0)), 0,
+      List.of(new SessionStore.TabContent("默认", paths)));
+
+    // 只是选中的图片变了，不重写标签页文件
+    store.save(List.of(new SessionStore.TabHeader("默认", 2)), 0, List.of());
+
+    SessionStore.Session session = store.load();
+    assertEquals(List.of(new SessionStore.TabState("默认", paths, 2)), session.tabs());
+  }
+
+  @Test
+  void closedTabsAreDeleted() {
+    var store = new SessionStore(sessionDir);
+    store.save(
+      List.of(new SessionStore.TabHeader("默认", -1), new SessionStore.TabHeader("2", -1)), 0,
+      List.of(new SessionStore.TabContent("默认", List.of("/a.jpg")), new SessionStore.TabContent("2", List.of("/b.jpg"))));
+    store.save(List.of(new SessionStore.TabHeader("默认", -1)), 0, List.of());
+
+    // 同名标签页重新出现时不会读到已关闭的标签页的内容
+    store.save(
+      List.of(new SessionStore.TabHeader("默认", -1), new SessionStore.TabHeader("2", -1)), 0, List.of());
+    assertEquals(List.of(), store.load().tabs().get(1).imagePaths());
+  }
+
+  @Test
+  void folderSnapshotRoundTrip() {
+    var store = new SessionStore(sessionDir);
+    var files = Map.of(
+      "/photos/a.jpg", new SessionStore.FileStamp(123, 1_700_000_000_000L),
+      "/photos/sub/b.jpg", new SessionStore.FileStamp(0, 0),
+      "/photos/图片.png", new SessionStore.FileStamp(Long.MAX_VALUE, -1));
+    store.saveFolderSnapshot(new SessionStore.FolderSnapshot("/photos", true, files));
+    // 等待之前提交的后台写入完成
+    store.save(List.of(), -1, List.of());
+
+    SessionStore.FolderSnapshot snapshot = store.loadFolderSnapshot("/photos");
+    assertNotNull(snapshot);
+    assertTrue(snapshot.recursive());
+    assertEquals(files, snapshot.files());
+    assertNull(store.loadFolderSnapshot("/other"));
+  }
+}